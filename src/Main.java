@@ -26,6 +26,8 @@ import transformations.CLAHE;
 import transformations.HistogramEqualization;
 import transformations.ITransformation;
 import transformations.NoTransformation;
+import transformations.SlidingWindowACLAHEwDGC;
+import transformations.SlidingWindowCLAHE;
 import utils.Utilities;
 
 /**
@@ -127,7 +129,9 @@ public class Main {
 			new CLAHE(defaultImage, imageLabel),
 			new ACLAHE(defaultImage, imageLabel),
 			new ACLAHEwDGC(defaultImage, imageLabel),
-			new ACLAHEwDGC2(defaultImage, imageLabel)
+			new ACLAHEwDGC2(defaultImage, imageLabel),
+			new SlidingWindowCLAHE(defaultImage, imageLabel),
+			new SlidingWindowACLAHEwDGC(defaultImage, imageLabel)
 		};
 		
 		// add the transformations in this split panel to the global transformation holder
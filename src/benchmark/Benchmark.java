@@ -0,0 +1,308 @@
+package benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.imageio.ImageIO;
+
+import transformations.BilinearInterpolation;
+import transformations.BlockGrid;
+import transformations.BlockStatistics;
+import transformations.ITransformation;
+import transformations.Kernels;
+import transformations.ResultCache;
+import transformations.Stage;
+import transformations.Transformations;
+import utils.Utilities;
+
+/**
+ * Command line benchmark of the transformations end to end and of each of their stages, for several image sizes and block sizes.
+ * Every benchmark is warmed up before it is measured, and the results are written as csv or json to track regressions.
+ *
+ * Usage: java benchmark.Benchmark [-t transformation]... [-sizes 256,512,1024] [-blockSizes 2,4,8,16] [-warmup n] [-iterations n] [-serial] [-fixedPoint] [-format csv|json] [-o file]
+ *
+ * @author JLepere2
+ * @date 05/15/2018
+ */
+public class Benchmark {
+
+	/**
+	 * The main method to run the benchmarks.
+	 * @param args Command line arguments, see the usage.
+	 */
+	public static void main(String[] args) throws IOException {
+		
+		// default options
+		List<String> transformationNames = new ArrayList<>();
+		int[] sizes = new int[] {256, 512, 1024};
+		int[] blockSizes = new int[] {2, 4, 8, 16};
+		int warmup = 5;
+		int iterations = 20;
+		boolean parallel = true;
+		boolean fixedPoint = false;
+		String format = "csv";
+		String outputFile = null;
+		
+		// parse the command line
+		try {
+			for (int i = 0; i < args.length; i ++) {
+				switch (args[i]) {
+					case "-t": transformationNames.add(args[++i]); break;
+					case "-sizes": sizes = parseList(args[++i]); break;
+					case "-blockSizes": blockSizes = parseList(args[++i]); break;
+					case "-warmup": warmup = Integer.parseInt(args[++i]); break;
+					case "-iterations": iterations = Integer.parseInt(args[++i]); break;
+					case "-serial": parallel = false; break;
+					case "-fixedPoint": fixedPoint = true; break;
+					case "-format": format = args[++i]; break;
+					case "-o": outputFile = args[++i]; break;
+					default: throw new IllegalArgumentException(args[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+			return;
+		}
+		if (iterations < 1 || warmup < 0 || !(format.equals("csv") || format.equals("json"))) {
+			usage();
+			return;
+		}
+		if (transformationNames.isEmpty()) {
+			transformationNames.addAll(Arrays.asList("Histogram Equalization", "CLAHE", "ACLAHE", "ACLAHEwDGC", "ACLAHEwDGC2"));
+		}
+		
+		// the benchmarks measure the transformations, not the result cache
+		ResultCache.setMemoryBudget(0);
+		
+		// the source image all sizes are resampled from
+		BufferedImage sourceImage = ImageIO.read(Utilities.class.getResourceAsStream(Utilities.images[0]));
+		
+		Benchmark benchmark = new Benchmark(warmup, iterations, parallel);
+		for (int size : sizes) {
+			
+			// the image at this size, as a file for loading and as hsb and brightness values
+			BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+			image.getGraphics().drawImage(sourceImage, 0, 0, size, size, null);
+			File imageFile = File.createTempFile("benchmark", ".png");
+			imageFile.deleteOnExit();
+			ImageIO.write(image, "png", imageFile);
+			float[][][] hsbImage = Utilities.getImage(image);
+			int[][] hsbBrightnessValues = Utilities.hsbBrightnessExtractor(hsbImage, ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE);
+			
+			// loading and rendering only depend on the size
+			benchmark.run("getImage", "", size, 0, () -> {
+				try {
+					return Utilities.getImage(imageFile);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			benchmark.run("createBufferedImage", "", size, 0, () -> Utilities.createBufferedImage(hsbImage, hsbBrightnessValues, ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, null, benchmark.parallel));
+			BufferedImage renderTarget = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+			benchmark.run("createBufferedImage:reused", "", size, 0, () -> Utilities.createBufferedImage(hsbImage, hsbBrightnessValues, ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, renderTarget, benchmark.parallel));
+			
+			// the brightness values and rendering through hsb, and with integer arithmetic on the rgb pixels
+			benchmark.run("extract:hsb", "", size, 0, () -> Utilities.hsbBrightnessExtractor(Utilities.getImage(image), ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE));
+			benchmark.run("extract:integerRgb", "", size, 0, () -> Utilities.rgbBrightnessExtractor(image, ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, new int[size][size]));
+			benchmark.run("createBufferedImage:integerRgb", "", size, 0, () -> Utilities.createBufferedImage(image, hsbBrightnessValues, ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, renderTarget, benchmark.parallel));
+			
+			// the stages shared by the block transformations
+			for (int blockSize : blockSizes) {
+				BlockGrid grid = new BlockGrid(size, size, blockSize, blockSize);
+				benchmark.run("decomposition", "", size, blockSize, () -> new BlockGrid(size, size, blockSize, blockSize));
+				benchmark.run("histogramming", "", size, blockSize, () -> new BlockStatistics(hsbBrightnessValues, grid, ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, true, benchmark.parallel));
+				int[][][] identityMappings = new int[grid.numBlocksCol][grid.numBlocksRow][];
+				for (int[][] mappings : identityMappings) {
+					for (int blockR = 0; blockR < mappings.length; blockR ++) {
+						mappings[blockR] = new int[ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE+1];
+						for (int brightness = 0; brightness < ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE+1; brightness ++) mappings[blockR][brightness] = brightness;
+					}
+				}
+				benchmark.run("interpolation", "", size, blockSize, () -> BilinearInterpolation.interpolate(hsbBrightnessValues, identityMappings, grid, benchmark.parallel, false));
+				benchmark.run("interpolation:fixedPoint", "", size, blockSize, () -> BilinearInterpolation.interpolate(hsbBrightnessValues, identityMappings, grid, benchmark.parallel, true));
+			}
+			
+			// the transformations end to end, with the time of each memoized stage
+			for (String transformationName : transformationNames) {
+				ITransformation transformation = Transformations.create(transformationName, hsbImage);
+				transformation.setParallel(parallel);
+				transformation.setFixedPoint(fixedPoint);
+				
+				// two equal copies of the brightness values alternate so no stage is reused between iterations
+				int[][][] planes = new int[][][] {hsbBrightnessValues, Utilities.hsbBrightnessExtractor(hsbImage, ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE)};
+				int[] iteration = new int[1];
+				Supplier<Object> transform = () -> transformation.getTransformedBrightnessValues(planes[iteration[0] ++ % 2]);
+				
+				if (Arrays.asList(transformation.getParameterNames()).contains("blockSize")) {
+					for (int blockSize : blockSizes) {
+						transformation.setParameter("blockSize", blockSize);
+						benchmark.run("transform", transformationName, size, blockSize, transform);
+					}
+				} else {
+					benchmark.run("transform", transformationName, size, 0, transform);
+				}
+			}
+		}
+		
+		// write the results
+		PrintStream out = (outputFile == null) ? System.out : new PrintStream(outputFile);
+		if (format.equals("csv")) benchmark.writeCsv(out);
+		else benchmark.writeJson(out);
+		out.flush();
+		if (out != System.out) out.close();
+		
+	}
+	
+	/**
+	 * Creates a benchmark.
+	 * @param warmup the number of unmeasured iterations before measuring
+	 * @param iterations the number of measured iterations
+	 * @param parallel true to run the stages concurrently
+	 */
+	private Benchmark(int warmup, int iterations, boolean parallel) {
+		this.warmup = warmup;
+		this.iterations = iterations;
+		this.parallel = parallel;
+	}
+	
+	/**
+	 * Measures an operation, and the memoized stages recalculated by it, and records the results.
+	 * @param benchmark the name of the benchmark
+	 * @param transformation the name of the transformation, empty for a shared stage
+	 * @param size the width and height of the image
+	 * @param blockSize the number of blocks per dimension, 0 if not applicable
+	 * @param operation the operation to measure, its result is kept so it is not optimized away
+	 */
+	private void run(String benchmark, String transformation, int size, int blockSize, Supplier<Object> operation) {
+		
+		// warm up
+		for (int i = 0; i < warmup; i ++) sink = operation.get();
+		
+		// stage times of each iteration in milliseconds, by stage name
+		Map<String, double[]> stageTimes = new LinkedHashMap<>();
+		int[] iteration = new int[1];
+		Stage.setListener((stage, nanos) -> stageTimes.computeIfAbsent(stage, name -> new double[iterations])[iteration[0]] += nanos / 1e6);
+		
+		// measure
+		double[] times = new double[iterations];
+		try {
+			for (iteration[0] = 0; iteration[0] < iterations; iteration[0] ++) {
+				long start = System.nanoTime();
+				sink = operation.get();
+				times[iteration[0]] = (System.nanoTime() - start) / 1e6;
+			}
+		} finally {
+			Stage.setListener(null);
+		}
+		
+		// record the results
+		results.add(new Result(benchmark, transformation, size, blockSize, times));
+		for (Map.Entry<String, double[]> stage : stageTimes.entrySet()) {
+			results.add(new Result("stage:" + stage.getKey(), transformation, size, blockSize, stage.getValue()));
+		}
+		System.err.printf("%s %s %dx%d blocks %d: %.3f ms%n", benchmark, transformation, size, size, blockSize, results.get(results.size() - 1 - stageTimes.size()).mean);
+		
+	}
+	
+	/**
+	 * Writes the results as comma separated values with a header line.
+	 * @param out the stream to write to
+	 */
+	private void writeCsv(PrintStream out) {
+		out.println("benchmark,transformation,size,blockSize,parallel,iterations,mean_ms,stddev_ms,min_ms,max_ms");
+		for (Result result : results) {
+			out.printf("%s,%s,%d,%d,%b,%d,%.4f,%.4f,%.4f,%.4f%n", result.benchmark, result.transformation, result.size, result.blockSize, parallel, iterations, result.mean, result.stddev, result.min, result.max);
+		}
+	}
+	
+	/**
+	 * Writes the results as a json object with the environment and an array of results.
+	 * @param out the stream to write to
+	 */
+	private void writeJson(PrintStream out) {
+		out.println("{");
+		out.printf("  \"javaVersion\": \"%s\",%n", System.getProperty("java.version"));
+		out.printf("  \"processors\": %d,%n", Runtime.getRuntime().availableProcessors());
+		out.printf("  \"parallel\": %b,%n", parallel);
+		out.printf("  \"kernels\": \"%s\",%n", Kernels.getKernels());
+		out.printf("  \"warmup\": %d,%n", warmup);
+		out.printf("  \"iterations\": %d,%n", iterations);
+		out.println("  \"results\": [");
+		for (int i = 0; i < results.size(); i ++) {
+			Result result = results.get(i);
+			out.printf("    {\"benchmark\": \"%s\", \"transformation\": \"%s\", \"size\": %d, \"blockSize\": %d, \"meanMs\": %.4f, \"stddevMs\": %.4f, \"minMs\": %.4f, \"maxMs\": %.4f}%s%n",
+					result.benchmark, result.transformation, result.size, result.blockSize, result.mean, result.stddev, result.min, result.max, (i < results.size() - 1) ? "," : "");
+		}
+		out.println("  ]");
+		out.println("}");
+	}
+	
+	/**
+	 * Parses a comma separated list of integers.
+	 * @param list the list
+	 * @return the integers
+	 */
+	private static int[] parseList(String list) {
+		return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+	
+	/**
+	 * Prints the command line usage.
+	 */
+	private static void usage() {
+		System.err.println("Usage: java benchmark.Benchmark [-t transformation]... [-sizes 256,512,1024] [-blockSizes 2,4,8,16] [-warmup n] [-iterations n] [-serial] [-fixedPoint] [-format csv|json] [-o file]");
+		System.err.println("Transformations: " + String.join(", ", Transformations.names));
+	}
+	
+	/**
+	 * The statistics of the measured iterations of a benchmark.
+	 */
+	private static class Result {
+		
+		/**
+		 * Calculates the statistics of the iteration times.
+		 * @param benchmark the name of the benchmark
+		 * @param transformation the name of the transformation, empty for a shared stage
+		 * @param size the width and height of the image
+		 * @param blockSize the number of blocks per dimension, 0 if not applicable
+		 * @param times the time of each iteration in milliseconds
+		 */
+		private Result(String benchmark, String transformation, int size, int blockSize, double[] times) {
+			this.benchmark = benchmark;
+			this.transformation = transformation;
+			this.size = size;
+			this.blockSize = blockSize;
+			mean = Arrays.stream(times).average().orElse(0);
+			stddev = Math.sqrt(Arrays.stream(times).map(time -> (time - mean) * (time - mean)).average().orElse(0));
+			min = Arrays.stream(times).min().orElse(0);
+			max = Arrays.stream(times).max().orElse(0);
+		}
+		
+		private final String benchmark;
+		private final String transformation;
+		private final int size;
+		private final int blockSize;
+		private final double mean;
+		private final double stddev;
+		private final double min;
+		private final double max;
+		
+	}
+	
+	private final int warmup;
+	private final int iterations;
+	private final boolean parallel;
+	private final List<Result> results = new ArrayList<>();
+	
+	// keeps the result of every operation so it is not optimized away
+	private static volatile Object sink;
+	
+}
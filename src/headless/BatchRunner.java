@@ -0,0 +1,285 @@
+package headless;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import transformations.ABlockTransformation;
+import transformations.ITransformation;
+import transformations.ResultCache;
+import transformations.StripTransformation;
+import transformations.Transformations;
+import utils.MappedImage;
+import utils.Utilities;
+
+/**
+ * Command line runner that transforms every image in a directory without the user interface.
+ * Binary PGM and PPM images are transformed in place of their memory mapped files and saved in their own format,
+ * optionally in strips of rows so images larger than the heap can be transformed.
+ *
+ * Usage: java headless.BatchRunner [-t transformation] [-p name=value]... [-threads n] [-format ext] [-fixedPoint] [-stripHeight n] [-integerRgb] inputDir outputDir
+ *
+ * @author JLepere2
+ * @date 05/10/2018
+ */
+public class BatchRunner {
+
+	/**
+	 * The main method to run the batch.
+	 * @param args Command line arguments, see the usage.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		
+		// default options
+		String transformationName = "ACLAHEwDGC";
+		Map<String, Integer> parameters = new LinkedHashMap<>();
+		int threads = Runtime.getRuntime().availableProcessors();
+		String format = "png";
+		boolean fixedPoint = false;
+		int stripHeight = 0;
+		boolean integerRgb = false;
+		List<String> directories = new ArrayList<>();
+		
+		// parse the command line
+		try {
+			for (int i = 0; i < args.length; i ++) {
+				switch (args[i]) {
+					case "-t": transformationName = args[++i]; break;
+					case "-threads": threads = Integer.parseInt(args[++i]); break;
+					case "-format": format = args[++i]; break;
+					case "-fixedPoint": fixedPoint = true; break;
+					case "-stripHeight": stripHeight = Integer.parseInt(args[++i]); break;
+					case "-integerRgb": integerRgb = true; break;
+					case "-p":
+						String[] parameter = args[++i].split("=", 2);
+						parameters.put(parameter[0], Integer.parseInt(parameter[1]));
+						break;
+					default: directories.add(args[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+			return;
+		}
+		if (directories.size() != 2 || threads < 1 || stripHeight < 0) {
+			usage();
+			return;
+		}
+		
+		// input and output directories
+		File inputDirectory = new File(directories.get(0));
+		File outputDirectory = new File(directories.get(1));
+		File[] inputFiles = inputDirectory.listFiles(File::isFile);
+		if (inputFiles == null) {
+			System.err.println("Not a directory: " + inputDirectory);
+			System.exit(1);
+		}
+		outputDirectory.mkdirs();
+		
+		// validate the transformation and parameters before starting the workers
+		try {
+			configure(Transformations.create(transformationName, new float[1][1][3]), parameters);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		
+		// every image is transformed once, so the results are not cached
+		ResultCache.setMemoryBudget(0);
+		
+		long start = System.nanoTime();
+		
+		// submit a task for each image
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		List<Future<?>> results = new ArrayList<>();
+		for (File inputFile : inputFiles) {
+			String name = inputFile.getName();
+			int extensionIndex = name.lastIndexOf('.');
+			String extension = isNetpbm(inputFile) ? name.substring(extensionIndex + 1) : format;
+			File outputFile = new File(outputDirectory, (extensionIndex > 0 ? name.substring(0, extensionIndex) : name) + "." + extension);
+			String tName = transformationName;
+			boolean tFixedPoint = fixedPoint;
+			int tStripHeight = stripHeight;
+			boolean tIntegerRgb = integerRgb;
+			results.add(workers.submit(() -> {
+				transformFile(tName, parameters, tFixedPoint, tStripHeight, tIntegerRgb, inputFile, outputFile);
+				return null;
+			}));
+		}
+		workers.shutdown();
+		
+		// wait for every image and report failures
+		int failures = 0;
+		for (int i = 0; i < results.size(); i ++) {
+			try {
+				results.get(i).get();
+			} catch (ExecutionException e) {
+				failures ++;
+				System.err.println(inputFiles[i].getName() + ": " + e.getCause().getMessage());
+			}
+		}
+		
+		// summary
+		double seconds = (System.nanoTime() - start) / 1e9;
+		int transformed = inputFiles.length - failures;
+		System.out.printf("%d images transformed, %d failed in %.2fs (%.2f images/s)%n", transformed, failures, seconds, transformed / seconds);
+		if (failures > 0) System.exit(1);
+		
+	}
+	
+	/**
+	 * Loads, transforms and saves a single image file.
+	 * @param transformationName the name of the transformation
+	 * @param parameters the transformation parameters
+	 * @param fixedPoint true to interpolate in fixed point
+	 * @param stripHeight the number of rows per strip of a PGM or PPM image, 0 to transform the whole image at once
+	 * @param integerRgb true to transform the rgb pixels with integer arithmetic instead of through an hsb image
+	 * @param inputFile the image file to transform
+	 * @param outputFile the file to save the transformed image to
+	 * @throws IOException if the image could not be read or written
+	 */
+	public static void transformFile(String transformationName, Map<String, Integer> parameters, boolean fixedPoint, int stripHeight, boolean integerRgb, File inputFile, File outputFile) throws IOException {
+		if (isNetpbm(inputFile)) {
+			transformMappedFile(transformationName, parameters, fixedPoint, stripHeight, inputFile, outputFile);
+			return;
+		}
+		if (integerRgb) {
+			transformRgbFile(transformationName, parameters, fixedPoint, inputFile, outputFile);
+			return;
+		}
+		float[][][] hsbImage = Utilities.getImage(inputFile);
+		ITransformation transformation = Transformations.create(transformationName, hsbImage);
+		configure(transformation, parameters);
+		transformation.setFixedPoint(fixedPoint);
+		
+		// render into the image of this worker, it is saved before the next image of the worker overwrites it
+		BufferedImage transformedImage = Utilities.createBufferedImage(hsbImage, transformation.getTransformedBrightnessValues(), ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, renderTarget.get(), true);
+		renderTarget.set(transformedImage);
+		Utilities.saveImage(transformedImage, outputFile);
+	}
+	
+	/**
+	 * Transforms an image file with integer arithmetic on its rgb pixels: the brightness values are the maximum channels and the
+	 * transformed pixels scale the channels by the new brightness, so the image is never converted to or from an hsb image.
+	 * @param transformationName the name of the transformation
+	 * @param parameters the transformation parameters
+	 * @param fixedPoint true to interpolate in fixed point
+	 * @param inputFile the image file to transform
+	 * @param outputFile the file to save the transformed image to
+	 * @throws IOException if the image could not be read or written
+	 */
+	public static void transformRgbFile(String transformationName, Map<String, Integer> parameters, boolean fixedPoint, File inputFile, File outputFile) throws IOException {
+		BufferedImage image = ImageIO.read(inputFile);
+		if (image == null) throw new IOException("Unsupported image format: " + inputFile);
+		BufferedImage rgbImage = Utilities.getRgbImage(image);
+		
+		// the transformation only uses the brightness values
+		ITransformation transformation = Transformations.create(transformationName, new float[1][1][3]);
+		configure(transformation, parameters);
+		transformation.setFixedPoint(fixedPoint);
+		int[][] hsbBrightnessValues = Utilities.rgbBrightnessExtractor(rgbImage, ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, new int[rgbImage.getHeight()][rgbImage.getWidth()]);
+		
+		// render into the image of this worker, it is saved before the next image of the worker overwrites it
+		BufferedImage transformedImage = Utilities.createBufferedImage(rgbImage, transformation.getTransformedBrightnessValues(hsbBrightnessValues), ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, renderTarget.get(), true);
+		renderTarget.set(transformedImage);
+		Utilities.saveImage(transformedImage, outputFile);
+	}
+	
+	/**
+	 * Transforms a PGM or PPM image file through memory mappings of the input and output files. The brightness values are read from
+	 * the mapped input and the transformed pixels are written to the mapped output, without decoding the image into an hsb image.
+	 * @param transformationName the name of the transformation
+	 * @param parameters the transformation parameters
+	 * @param fixedPoint true to interpolate in fixed point
+	 * @param stripHeight the number of rows per strip, 0 to transform the whole image at once
+	 * @param inputFile the PGM or PPM image file to transform
+	 * @param outputFile the file to save the transformed image to, in the format of the input
+	 * @throws IOException if the image could not be read or written
+	 */
+	public static void transformMappedFile(String transformationName, Map<String, Integer> parameters, boolean fixedPoint, int stripHeight, File inputFile, File outputFile) throws IOException {
+		try (MappedImage input = MappedImage.open(inputFile);
+				MappedImage output = MappedImage.create(outputFile, input.getWidth(), input.getHeight(), input.getChannels(), input.getMaxValue())) {
+			// the transformation only uses the brightness values
+			ITransformation transformation = Transformations.create(transformationName, new float[1][1][3]);
+			configure(transformation, parameters);
+			transformation.setFixedPoint(fixedPoint);
+			
+			// samples with more levels than the histogram bins, e.g. 16 bit, are transformed at their full precision by the block transformations
+			int maxValue = input.getMaxValue();
+			boolean fullPrecision = maxValue > ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE && transformation instanceof ABlockTransformation;
+			
+			if (stripHeight > 0) {
+				// read the strips from the mapped input twice and write each transformed strip to the mapped output
+				if (!(transformation instanceof ABlockTransformation)) throw new IllegalArgumentException(transformationName + " is not a block transformation, which strips require");
+				StripTransformation stripTransformation = new StripTransformation((ABlockTransformation) transformation, stripHeight);
+				if (fullPrecision) {
+					stripTransformation.transform(input.getHeight(), input.getWidth(), maxValue,
+							(startRow, strip) -> input.getValues(startRow, strip),
+							(startRow, newStrip) -> output.setPixels(input, newStrip, maxValue, startRow));
+				} else {
+					stripTransformation.transform(input.getHeight(), input.getWidth(),
+							(startRow, strip) -> input.getBrightnessValues(ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, startRow, strip),
+							(startRow, newStrip) -> output.setPixels(input, newStrip, ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, startRow));
+				}
+			} else if (fullPrecision) {
+				// write the pixels with the new values
+				int[][] newValues = ((ABlockTransformation) transformation).getTransformedValues(input.getValues(0, new int[input.getHeight()][input.getWidth()]), maxValue);
+				output.setPixels(input, newValues, maxValue);
+			} else {
+				// write the pixels with the new brightness values
+				int[][] hsbNewBrightnessValues = transformation.getTransformedBrightnessValues(input.getBrightnessValues(ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE));
+				output.setPixels(input, hsbNewBrightnessValues, ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE);
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether a file is a PGM or PPM image by its extension.
+	 * @param file the image file
+	 * @return true for the pgm, ppm and pnm extensions
+	 */
+	private static boolean isNetpbm(File file) {
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".pgm") || name.endsWith(".ppm") || name.endsWith(".pnm");
+	}
+	
+	/**
+	 * Sets the parameters of a transformation, each checked against the range of its slider so a value from the command line
+	 * or a request cannot allocate unbounded block histograms or divide by zero.
+	 * @param transformation the transformation
+	 * @param parameters the parameter values by name
+	 * @throws IllegalArgumentException if the transformation has no such parameter or a value is out of its range
+	 */
+	static void configure(ITransformation transformation, Map<String, Integer> parameters) {
+		for (Map.Entry<String, Integer> parameter : parameters.entrySet()) {
+			int[] range = transformation.getParameterRange(parameter.getKey());
+			int value = parameter.getValue();
+			if (value < range[0] || value > range[1]) {
+				throw new IllegalArgumentException(transformation + " parameter " + parameter.getKey() + " must be from " + range[0] + " to " + range[1] + ": " + value);
+			}
+			transformation.setParameter(parameter.getKey(), value);
+		}
+	}
+	
+	/**
+	 * Prints the command line usage.
+	 */
+	private static void usage() {
+		System.err.println("Usage: java headless.BatchRunner [-t transformation] [-p name=value]... [-threads n] [-format ext] [-fixedPoint] [-stripHeight n] [-integerRgb] inputDir outputDir");
+		System.err.println("Transformations: " + String.join(", ", Transformations.names));
+	}
+	
+	// the image each worker thread renders into, reused while the image sizes are the same
+	private static final ThreadLocal<BufferedImage> renderTarget = new ThreadLocal<>();
+	
+}
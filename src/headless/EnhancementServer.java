@@ -0,0 +1,498 @@
+package headless;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import transformations.ITransformation;
+import transformations.ResultCache;
+import transformations.Transformations;
+import utils.Utilities;
+
+/**
+ * Service that enhances images sent over HTTP with the JDK's built in server, so other services can call the transformations
+ * without embedding the user interface. An image is posted to /enhance with the transformation and its parameters in the query,
+ * e.g. POST /enhance?t=ACLAHEwDGC&amp;blockSize=8&amp;alpha=100&amp;format=png, and the enhanced image is returned in the response.
+ *
+ * At most -threads requests are transformed at a time and at most -queue more wait for a worker. Any request beyond them is rejected
+ * at once with 503 Service Unavailable instead of waiting, so under overload the latency of the accepted requests stays bounded by
+ * the queue instead of growing with the backlog. The parameters are checked against their ranges and the size of the image against -maxPixels
+ * before decoding, so the memory of a request is bounded as well. Each worker keeps its request, brightness, image and response buffers between requests.
+ *
+ * Usage: java headless.EnhancementServer [-port n] [-threads n] [-queue n] [-maxBytes n] [-maxPixels n] [-fixedPoint]
+ *
+ * @author JLepere2
+ * @date 05/18/2018
+ */
+public class EnhancementServer {
+
+	/**
+	 * The main method to run the service.
+	 * @param args Command line arguments, see the usage.
+	 */
+	public static void main(String[] args) throws IOException {
+		
+		// default options
+		int port = 8080;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int queueCapacity = 2 * Runtime.getRuntime().availableProcessors();
+		int maxBytes = 32 * 1024 * 1024;
+		int maxPixels = 16 * 1024 * 1024;
+		boolean fixedPoint = false;
+		
+		// parse the command line
+		try {
+			for (int i = 0; i < args.length; i ++) {
+				switch (args[i]) {
+					case "-port": port = Integer.parseInt(args[++i]); break;
+					case "-threads": threads = Integer.parseInt(args[++i]); break;
+					case "-queue": queueCapacity = Integer.parseInt(args[++i]); break;
+					case "-maxBytes": maxBytes = Integer.parseInt(args[++i]); break;
+					case "-maxPixels": maxPixels = Integer.parseInt(args[++i]); break;
+					case "-fixedPoint": fixedPoint = true; break;
+					default: throw new IllegalArgumentException(args[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+			return;
+		}
+		if (threads < 1 || queueCapacity < 0 || maxBytes < 1 || maxPixels < 1) {
+			usage();
+			return;
+		}
+		
+		// every image is transformed once, so the results are not cached
+		ResultCache.setMemoryBudget(0);
+		
+		EnhancementServer server = new EnhancementServer(port, threads, queueCapacity, maxBytes, maxPixels, fixedPoint);
+		server.start();
+		System.out.println("Listening on http://localhost:" + server.getPort() + "/enhance with " + threads + " workers and " + queueCapacity + " queued requests");
+		
+	}
+	
+	/**
+	 * Creates the service, not yet started.
+	 * @param port the port to listen on, 0 for any free port
+	 * @param threads the number of requests transformed concurrently
+	 * @param queueCapacity the number of requests waiting for a worker before requests are rejected
+	 * @param maxBytes the maximum size of a posted image
+	 * @param maxPixels the maximum width times height of a posted image
+	 * @param fixedPoint true to interpolate in fixed point
+	 * @throws IOException if the port could not be bound
+	 */
+	public EnhancementServer(int port, int threads, int queueCapacity, int maxBytes, int maxPixels, boolean fixedPoint) throws IOException {
+		this.threads = threads;
+		this.queueCapacity = queueCapacity;
+		this.maxBytes = maxBytes;
+		this.maxPixels = maxPixels;
+		this.fixedPoint = fixedPoint;
+		
+		// a permit per worker and per place in the queue, so the queue of the workers never grows beyond them
+		admission = new Semaphore(threads + queueCapacity);
+		workers = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "enhancement-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		// the handlers run on the dispatcher thread of the server and only hand admitted requests to the workers
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/enhance", this::enhance);
+		server.createContext("/stats", this::stats);
+	}
+	
+	/**
+	 * Starts accepting requests.
+	 */
+	public void start() {
+		server.start();
+	}
+	
+	/**
+	 * Stops accepting requests, waits for the exchanges in progress to finish and stops the workers.
+	 * @param delaySeconds the maximum time to wait for the exchanges in progress
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		workers.shutdownNow();
+	}
+	
+	/**
+	 * Gets the port the service listens on.
+	 * @return the port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	/**
+	 * Admits or rejects an enhancement request, on the dispatcher thread.
+	 * @param exchange the request and response
+	 * @throws IOException if the response could not be sent
+	 */
+	private void enhance(HttpExchange exchange) throws IOException {
+		
+		// only posted images
+		if (!exchange.getRequestMethod().equals("POST")) {
+			exchange.getResponseHeaders().set("Allow", "POST");
+			sendError(exchange, 405, "Post an image to enhance");
+			return;
+		}
+		
+		// declared too large, rejected before reading the body
+		String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+		if (contentLength != null && parseLong(contentLength) > maxBytes) {
+			sendError(exchange, 413, "Image larger than " + maxBytes + " bytes");
+			return;
+		}
+		
+		// rejected at once when every worker is busy and the queue is full
+		if (!admission.tryAcquire()) {
+			rejected.incrementAndGet();
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			sendError(exchange, 503, "Overloaded, retry later");
+			return;
+		}
+		accepted.incrementAndGet();
+		
+		long admitted = System.nanoTime();
+		try {
+			workers.execute(() -> {
+				queueNanos.addAndGet(System.nanoTime() - admitted);
+				inProgress.incrementAndGet();
+				try {
+					process(exchange);
+				} finally {
+					serviceNanos.addAndGet(System.nanoTime() - admitted);
+					inProgress.decrementAndGet();
+					admission.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the service is stopping
+			admission.release();
+			sendError(exchange, 503, "Stopping");
+		}
+		
+	}
+	
+	/**
+	 * Transforms a posted image and sends the enhanced image, on a worker thread.
+	 * @param exchange the request and response
+	 */
+	private void process(HttpExchange exchange) {
+		Buffers buffers = this.buffers.get();
+		try {
+			try {
+				
+				// the transformation, its parameters and the output format from the query
+				Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+				String transformationName = query.getOrDefault("t", "ACLAHEwDGC");
+				String format = query.getOrDefault("format", "png");
+				query.remove("t");
+				query.remove("format");
+				Map<String, Integer> parameters = new LinkedHashMap<>();
+				for (Map.Entry<String, String> parameter : query.entrySet()) {
+					try {
+						parameters.put(parameter.getKey(), Integer.parseInt(parameter.getValue()));
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Parameter " + parameter.getKey() + " is not an integer: " + parameter.getValue());
+					}
+				}
+				if (!ImageIO.getImageWritersByFormatName(format).hasNext()) throw new IllegalArgumentException("No writer for image format: " + format);
+				
+				// the transformation only uses the brightness values
+				ITransformation transformation = Transformations.create(transformationName, new float[1][1][3]);
+				BatchRunner.configure(transformation, parameters);
+				transformation.setFixedPoint(fixedPoint);
+				
+				// concurrent requests already occupy the processors
+				transformation.setParallel(false);
+				
+				// read the posted image into the request buffer of this worker
+				if (!readBody(exchange.getRequestBody(), buffers.request)) {
+					failed.incrementAndGet();
+					sendError(exchange, 413, "Image larger than " + maxBytes + " bytes");
+					return;
+				}
+				
+				// the size of the image from its header, checked before its pixels are decoded since a small file can hold a huge image
+				BufferedImage image;
+				try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(buffers.request.buffer(), 0, buffers.request.size()))) {
+					Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+					if (!readers.hasNext()) throw new IllegalArgumentException("Unsupported image format");
+					ImageReader reader = readers.next();
+					try {
+						long pixels;
+						try {
+							reader.setInput(input, true, true);
+							pixels = ((long) reader.getWidth(0)) * reader.getHeight(0);
+						} catch (IOException e) {
+							throw new IllegalArgumentException("Image could not be decoded: " + e.getMessage());
+						}
+						if (pixels > maxPixels) {
+							failed.incrementAndGet();
+							sendError(exchange, 413, "Image larger than " + maxPixels + " pixels");
+							return;
+						}
+						try {
+							image = reader.read(0);
+						} catch (IOException e) {
+							throw new IllegalArgumentException("Image could not be decoded: " + e.getMessage());
+						}
+					} finally {
+						// dispose does not close the input, the try closes it
+						reader.dispose();
+					}
+				}
+				BufferedImage rgbImage = Utilities.getRgbImage(image);
+				
+				// transform with integer arithmetic on the rgb pixels, into the brightness values and render target of this worker
+				int[][] hsbBrightnessValues = Utilities.rgbBrightnessExtractor(rgbImage, ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, buffers.brightnessValues(rgbImage.getHeight(), rgbImage.getWidth()));
+				buffers.renderTarget = Utilities.createBufferedImage(rgbImage, transformation.getTransformedBrightnessValues(hsbBrightnessValues), ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, buffers.renderTarget, false);
+				
+				// encode into the response buffer of this worker, so the length is known before the response is sent
+				buffers.response.reset();
+				Utilities.writeImage(buffers.renderTarget, format, buffers.response);
+				exchange.getResponseHeaders().set("Content-Type", "image/" + (format.equalsIgnoreCase("jpg") ? "jpeg" : format.toLowerCase()));
+				exchange.sendResponseHeaders(200, buffers.response.size());
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(buffers.response.buffer(), 0, buffers.response.size());
+				}
+				completed.incrementAndGet();
+				
+			} catch (IllegalArgumentException e) {
+				// unknown transformation or parameter, or an image that could not be decoded
+				failed.incrementAndGet();
+				sendError(exchange, 400, e.getMessage());
+			} catch (RuntimeException e) {
+				failed.incrementAndGet();
+				sendError(exchange, 500, String.valueOf(e.getMessage()));
+			} catch (Error e) {
+				// e.g. out of memory for an admitted image, the client gets an answer instead of waiting for its timeout
+				failed.incrementAndGet();
+				if (e instanceof OutOfMemoryError) {
+					exchange.getResponseHeaders().set("Retry-After", "1");
+					sendError(exchange, 503, "Out of memory, retry later");
+				} else {
+					sendError(exchange, 500, String.valueOf(e.getMessage()));
+				}
+			} finally {
+				buffers.release(maxBytes);
+			}
+		} catch (IOException e) {
+			// the client went away, nothing left to send
+			failed.incrementAndGet();
+		} finally {
+			// always closed, also when the response could not be sent
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Reads the body of a request into a buffer, up to the maximum size.
+	 * @param in the body of the request
+	 * @param request the buffer to read into, reset first
+	 * @return true if the body was read, false if it is larger than the maximum size
+	 * @throws IOException if the body could not be read
+	 */
+	private boolean readBody(InputStream in, PooledStream request) throws IOException {
+		request.reset();
+		byte[] chunk = new byte[8192];
+		int read;
+		while ((read = in.read(chunk)) != -1) {
+			if (request.size() + read > maxBytes) return false;
+			request.write(chunk, 0, read);
+		}
+		return true;
+	}
+	
+	/**
+	 * Sends the counters of the requests as JSON.
+	 * @param exchange the request and response
+	 * @throws IOException if the response could not be sent
+	 */
+	private void stats(HttpExchange exchange) throws IOException {
+		int done = completed.get() + failed.get();
+		String json = String.format("{\"threads\":%d,\"queue\":%d,\"accepted\":%d,\"rejected\":%d,\"completed\":%d,\"failed\":%d,\"inProgress\":%d,\"queued\":%d,\"meanQueueMs\":%.2f,\"meanServiceMs\":%.2f}%n",
+				threads, queueCapacity, accepted.get(), rejected.get(), completed.get(), failed.get(), inProgress.get(),
+				threads + queueCapacity - admission.availablePermits() - inProgress.get(),
+				(done == 0) ? 0.0 : queueNanos.get() / 1e6 / done, (done == 0) ? 0.0 : serviceNanos.get() / 1e6 / done);
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+	
+	/**
+	 * Sends an error response with a plain text message.
+	 * @param exchange the request and response
+	 * @param status the HTTP status
+	 * @param message the message
+	 * @throws IOException if the response could not be sent
+	 */
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+	
+	/**
+	 * Parses the parameters of a query string.
+	 * @param rawQuery the encoded query string, may be null
+	 * @return the decoded parameters in order, the last value of a repeated name
+	 */
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> parameters = new LinkedHashMap<>();
+		if (rawQuery == null || rawQuery.isEmpty()) return parameters;
+		for (String pair : rawQuery.split("&")) {
+			if (pair.isEmpty()) continue;
+			String[] parameter = pair.split("=", 2);
+			parameters.put(URLDecoder.decode(parameter[0], StandardCharsets.UTF_8), (parameter.length == 2) ? URLDecoder.decode(parameter[1], StandardCharsets.UTF_8) : "");
+		}
+		return parameters;
+	}
+	
+	/**
+	 * Parses a header value as a number.
+	 * @param value the header value
+	 * @return the number, or -1 if it is not a number
+	 */
+	private static long parseLong(String value) {
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Prints the command line usage.
+	 */
+	private static void usage() {
+		System.err.println("Usage: java headless.EnhancementServer [-port n] [-threads n] [-queue n] [-maxBytes n] [-maxPixels n] [-fixedPoint]");
+		System.err.println("Transformations: " + String.join(", ", Transformations.names));
+	}
+	
+	/**
+	 * A byte stream whose buffer is kept between requests and read without copying.
+	 */
+	private static class PooledStream extends ByteArrayOutputStream {
+		
+		/**
+		 * Creates an empty stream.
+		 */
+		PooledStream() {
+			super(64 * 1024);
+		}
+		
+		/**
+		 * Gets the buffer of the stream, valid up to its size.
+		 * @return the buffer
+		 */
+		byte[] buffer() {
+			return buf;
+		}
+		
+		/**
+		 * Drops the buffer if it grew beyond a capacity, e.g. after an unusually large image.
+		 * @param capacity the largest buffer to keep
+		 */
+		void trim(int capacity) {
+			if (buf.length > capacity) buf = new byte[64 * 1024];
+			reset();
+		}
+		
+	}
+	
+	/**
+	 * The buffers of a worker, reused by each request it processes.
+	 */
+	private static class Buffers {
+		
+		/**
+		 * Gets the brightness matrix, reused if it has the size of the image.
+		 * @param height the height of the image
+		 * @param width the width of the image
+		 * @return the brightness matrix
+		 */
+		int[][] brightnessValues(int height, int width) {
+			if (brightness == null || brightness.length != height || brightness[0].length != width) {
+				brightness = new int[height][width];
+			}
+			return brightness;
+		}
+		
+		/**
+		 * Resets the streams after a request, dropping buffers that grew beyond the maximum size of a posted image.
+		 * @param maxBytes the maximum size of a posted image
+		 */
+		void release(int maxBytes) {
+			request.trim(maxBytes);
+			response.trim(maxBytes);
+		}
+		
+		// the posted and encoded images
+		final PooledStream request = new PooledStream();
+		final PooledStream response = new PooledStream();
+		
+		// the brightness values and the rendered image of the last request
+		int[][] brightness;
+		BufferedImage renderTarget;
+		
+	}
+	
+	// the options of the service
+	private final int threads;
+	private final int queueCapacity;
+	private final int maxBytes;
+	private final int maxPixels;
+	private final boolean fixedPoint;
+	
+	// the server, the workers and the permits of the admitted requests
+	private final HttpServer server;
+	private final ExecutorService workers;
+	private final Semaphore admission;
+	
+	// the buffers of each worker
+	private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+	
+	// the counters of the requests
+	private final AtomicInteger accepted = new AtomicInteger();
+	private final AtomicInteger rejected = new AtomicInteger();
+	private final AtomicInteger completed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger inProgress = new AtomicInteger();
+	private final AtomicLong queueNanos = new AtomicLong();
+	private final AtomicLong serviceNanos = new AtomicLong();
+	
+}
@@ -0,0 +1,130 @@
+package headless;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import transformations.ABlockTransformation;
+import transformations.FrameStream;
+import transformations.ITransformation;
+import transformations.ResultCache;
+import transformations.Transformations;
+import utils.Utilities;
+
+/**
+ * Command line runner that transforms the frames of a sequence, the image files of a directory in name order, as a frame stream
+ * that reuses the mapping functions of the blocks across frames.
+ *
+ * Usage: java headless.FrameSequenceRunner [-t transformation] [-p name=value]... [-drift n] [-adaptation n] [-format ext] inputDir outputDir
+ *
+ * @author JLepere2
+ * @date 05/16/2018
+ */
+public class FrameSequenceRunner {
+
+	/**
+	 * The main method to run the frame sequence.
+	 * @param args Command line arguments, see the usage.
+	 */
+	public static void main(String[] args) throws IOException {
+		
+		// default options
+		String transformationName = "ACLAHEwDGC";
+		Map<String, Integer> parameters = new LinkedHashMap<>();
+		int driftThreshold = 8;
+		int adaptationRate = 50;
+		String format = "png";
+		List<String> directories = new ArrayList<>();
+		
+		// parse the command line
+		try {
+			for (int i = 0; i < args.length; i ++) {
+				switch (args[i]) {
+					case "-t": transformationName = args[++i]; break;
+					case "-drift": driftThreshold = Integer.parseInt(args[++i]); break;
+					case "-adaptation": adaptationRate = Integer.parseInt(args[++i]); break;
+					case "-format": format = args[++i]; break;
+					case "-p":
+						String[] parameter = args[++i].split("=", 2);
+						parameters.put(parameter[0], Integer.parseInt(parameter[1]));
+						break;
+					default: directories.add(args[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+			return;
+		}
+		if (directories.size() != 2) {
+			usage();
+			return;
+		}
+		
+		// input frames in name order and output directory
+		File inputDirectory = new File(directories.get(0));
+		File outputDirectory = new File(directories.get(1));
+		File[] inputFiles = inputDirectory.listFiles(File::isFile);
+		if (inputFiles == null) {
+			System.err.println("Not a directory: " + inputDirectory);
+			System.exit(1);
+		}
+		Arrays.sort(inputFiles);
+		outputDirectory.mkdirs();
+		
+		// the block transformation of the stream
+		FrameStream stream = null;
+		try {
+			ITransformation transformation = Transformations.create(transformationName, new float[1][1][3]);
+			BatchRunner.configure(transformation, parameters);
+			if (!(transformation instanceof ABlockTransformation)) throw new IllegalArgumentException(transformationName + " is not a block transformation");
+			stream = new FrameStream((ABlockTransformation) transformation, driftThreshold, adaptationRate);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		
+		// frames are only transformed through the stream, so no results are cached
+		ResultCache.setMemoryBudget(0);
+		
+		long start = System.nanoTime();
+		
+		// transform the frames one by one
+		int frames = 0;
+		long recalculatedBlocks = 0;
+		for (File inputFile : inputFiles) {
+			BufferedImage frame = ImageIO.read(inputFile);
+			if (frame == null) {
+				System.err.println(inputFile.getName() + ": not an image");
+				continue;
+			}
+			BufferedImage transformedFrame = stream.next(frame);
+			recalculatedBlocks += stream.getRecalculatedBlocks();
+			
+			String name = inputFile.getName();
+			int extensionIndex = name.lastIndexOf('.');
+			Utilities.saveImage(transformedFrame, new File(outputDirectory, (extensionIndex > 0 ? name.substring(0, extensionIndex) : name) + "." + format));
+			frames ++;
+		}
+		
+		// summary
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d frames transformed in %.2fs (%.2f frames/s), %.1f blocks recalculated per frame%n", frames, seconds, frames / seconds, (frames == 0) ? 0.0 : ((double) recalculatedBlocks) / frames);
+		
+	}
+	
+	/**
+	 * Prints the command line usage.
+	 */
+	private static void usage() {
+		System.err.println("Usage: java headless.FrameSequenceRunner [-t transformation] [-p name=value]... [-drift n] [-adaptation n] [-format ext] inputDir outputDir");
+		System.err.println("Block transformations: CLAHE, ACLAHE, ACLAHEwDGC, ACLAHEwDGC2");
+	}
+	
+}
@@ -0,0 +1,414 @@
+package headless;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import transformations.ITransformation;
+import transformations.ResultCache;
+import transformations.Transformations;
+import utils.Utilities;
+
+/**
+ * Command line runner that transforms every image in a directory as a pipeline of three stages: decoding, transforming and encoding.
+ * Decoding and encoding block on I/O and run on virtual threads when the runtime has them (Java 21), on platform threads otherwise.
+ * Transforming is bound by the processors and runs on a fixed pool of platform threads. The stages are connected by bounded queues,
+ * so a slow stage holds back the stage before it instead of images piling up in memory, and the I/O of one image overlaps the
+ * transformation of the others. The throughput of each stage and the depths of the queues are reported at the end.
+ *
+ * Usage: java headless.PipelineRunner [-t transformation] [-p name=value]... [-threads n] [-queue n] [-format ext] [-fixedPoint] inputDir outputDir
+ *
+ * @author JLepere2
+ * @date 05/17/2018
+ */
+public class PipelineRunner {
+
+	/**
+	 * The main method to run the pipeline.
+	 * @param args Command line arguments, see the usage.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		
+		// default options
+		String transformationName = "ACLAHEwDGC";
+		Map<String, Integer> parameters = new LinkedHashMap<>();
+		int threads = Runtime.getRuntime().availableProcessors();
+		int queueCapacity = 2 * Runtime.getRuntime().availableProcessors();
+		String format = "png";
+		boolean fixedPoint = false;
+		List<String> directories = new ArrayList<>();
+		
+		// parse the command line
+		try {
+			for (int i = 0; i < args.length; i ++) {
+				switch (args[i]) {
+					case "-t": transformationName = args[++i]; break;
+					case "-threads": threads = Integer.parseInt(args[++i]); break;
+					case "-queue": queueCapacity = Integer.parseInt(args[++i]); break;
+					case "-format": format = args[++i]; break;
+					case "-fixedPoint": fixedPoint = true; break;
+					case "-p":
+						String[] parameter = args[++i].split("=", 2);
+						parameters.put(parameter[0], Integer.parseInt(parameter[1]));
+						break;
+					default: directories.add(args[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+			return;
+		}
+		if (directories.size() != 2 || threads < 1 || queueCapacity < 1) {
+			usage();
+			return;
+		}
+		
+		// input and output directories
+		File inputDirectory = new File(directories.get(0));
+		File outputDirectory = new File(directories.get(1));
+		File[] inputFiles = inputDirectory.listFiles(File::isFile);
+		if (inputFiles == null) {
+			System.err.println("Not a directory: " + inputDirectory);
+			System.exit(1);
+		}
+		outputDirectory.mkdirs();
+		
+		// validate the transformation and parameters before starting the stages
+		try {
+			BatchRunner.configure(Transformations.create(transformationName, new float[1][1][3]), parameters);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		
+		// every image is transformed once, so the results are not cached
+		ResultCache.setMemoryBudget(0);
+		
+		// run the pipeline and report
+		PipelineRunner pipeline = new PipelineRunner(transformationName, parameters, fixedPoint, threads, queueCapacity);
+		long start = System.nanoTime();
+		int failures = pipeline.run(inputFiles, outputDirectory, format);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pipeline.report(seconds);
+		int transformed = inputFiles.length - failures;
+		System.out.printf("%d images transformed, %d failed in %.2fs (%.2f images/s)%n", transformed, failures, seconds, transformed / seconds);
+		if (failures > 0) System.exit(1);
+		
+	}
+	
+	/**
+	 * Creates a pipeline.
+	 * @param transformationName the name of the transformation
+	 * @param parameters the transformation parameters
+	 * @param fixedPoint true to interpolate in fixed point
+	 * @param threads the number of platform threads transforming images
+	 * @param queueCapacity the capacity of each queue between the stages
+	 */
+	public PipelineRunner(String transformationName, Map<String, Integer> parameters, boolean fixedPoint, int threads, int queueCapacity) {
+		this.transformationName = transformationName;
+		this.parameters = parameters;
+		this.fixedPoint = fixedPoint;
+		this.threads = threads;
+		this.queueCapacity = queueCapacity;
+		decoded = new ArrayBlockingQueue<>(queueCapacity);
+		transformed = new ArrayBlockingQueue<>(queueCapacity);
+	}
+	
+	/**
+	 * Transforms image files through the pipeline.
+	 * @param inputFiles the image files to transform
+	 * @param outputDirectory the directory to save the transformed images to
+	 * @param format the format of the transformed images
+	 * @return the number of images that failed
+	 * @throws InterruptedException if interrupted while waiting for the stages
+	 */
+	public int run(File[] inputFiles, File outputDirectory, String format) throws InterruptedException {
+		int total = inputFiles.length;
+		AtomicInteger failures = new AtomicInteger();
+		CountDownLatch encodedAll = new CountDownLatch(total);
+		
+		// the images decoded but not yet transformed, and transformed but not yet encoded, are bounded by the slots of the queues
+		Semaphore decodeSlots = new Semaphore(queueCapacity);
+		Semaphore encodeSlots = new Semaphore(queueCapacity);
+		
+		ExecutorService io = newIoExecutor();
+		ExecutorService compute = Executors.newFixedThreadPool(threads);
+		try {
+			
+			// TRANSFORM: each platform thread takes decoded images until every image was taken
+			AtomicInteger taken = new AtomicInteger();
+			for (int thread = 0; thread < threads; thread ++) {
+				compute.execute(() -> {
+					try {
+						while (taken.getAndIncrement() < total) {
+							Item item = decoded.take();
+							decodeSlots.release();
+							if (item.error == null) {
+								long start = System.nanoTime();
+								try {
+									transform(item);
+								} catch (RuntimeException | Error e) {
+									// the image fails, the pipeline goes on
+									item.error = e;
+								}
+								transformStats.add(System.nanoTime() - start);
+							}
+							
+							// blocks while the encoders are behind
+							transformed.put(item);
+							transformedDepth.add(transformed.size());
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+			
+			// ENCODE: dispatched in order of transformation to the I/O threads
+			Thread encoder = new Thread(() -> {
+				try {
+					for (int i = 0; i < total; i ++) {
+						Item item = transformed.take();
+						encodeSlots.acquire();
+						io.execute(() -> {
+							try {
+								if (item.error == null) {
+									long start = System.nanoTime();
+									try {
+										Utilities.saveImage(item.transformedImage, item.outputFile);
+									} catch (IOException | RuntimeException | Error e) {
+										item.error = e;
+									}
+									encodeStats.add(System.nanoTime() - start);
+								}
+								if (item.error != null) {
+									failures.incrementAndGet();
+									System.err.println(item.inputFile.getName() + ": " + item.error.getMessage());
+								}
+							} finally {
+								item.transformedImage = null;
+								encodeSlots.release();
+								encodedAll.countDown();
+							}
+						});
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}, "pipeline-encoder");
+			encoder.start();
+			
+			// DECODE: one I/O task per image, started while there is a free slot in the decoded queue
+			for (File inputFile : inputFiles) {
+				String name = inputFile.getName();
+				int extensionIndex = name.lastIndexOf('.');
+				Item item = new Item(inputFile, new File(outputDirectory, (extensionIndex > 0 ? name.substring(0, extensionIndex) : name) + "." + format));
+				decodeSlots.acquire();
+				io.execute(() -> {
+					long start = System.nanoTime();
+					try {
+						item.hsbImage = Utilities.getImage(item.inputFile);
+					} catch (IOException | RuntimeException | Error e) {
+						// e.g. out of memory on a huge image, the image fails and is reported by the encoder
+						item.error = e;
+					} finally {
+						// handed on whatever happened, the transforming threads and the encoder wait for every image
+						decodeStats.add(System.nanoTime() - start);
+					
+						// never blocks, the slot was reserved before decoding
+						decoded.add(item);
+						decodedDepth.add(decoded.size());
+					}
+				});
+			}
+			
+			// wait for the last image to be encoded
+			encodedAll.await();
+			encoder.join();
+			
+		} finally {
+			compute.shutdownNow();
+			io.shutdownNow();
+		}
+		return failures.get();
+	}
+	
+	/**
+	 * Transforms a decoded image and renders the transformed image.
+	 * @param item the decoded image
+	 */
+	private void transform(Item item) {
+		ITransformation transformation = Transformations.create(transformationName, item.hsbImage);
+		BatchRunner.configure(transformation, parameters);
+		transformation.setFixedPoint(fixedPoint);
+		
+		// a new image for each item, it is encoded while this thread transforms the next image
+		item.transformedImage = Utilities.createBufferedImage(item.hsbImage, transformation.getTransformedBrightnessValues(), ITransformation.HSB_BRIGHTNESS_MAX_INT_VALUE, null, true);
+		item.hsbImage = null;
+	}
+	
+	/**
+	 * Prints the throughput of each stage and the depths of the queues.
+	 * @param seconds the time the pipeline ran
+	 */
+	public void report(double seconds) {
+		System.out.println("I/O threads: " + ioThreads);
+		decodeStats.print("decode", seconds);
+		transformStats.print("transform", seconds);
+		encodeStats.print("encode", seconds);
+		decodedDepth.print("decoded queue", queueCapacity);
+		transformedDepth.print("transformed queue", queueCapacity);
+	}
+	
+	/**
+	 * Creates the executor of the I/O stages: a virtual thread per task on Java 21 and later, looked up by name so the runner
+	 * still compiles and runs on earlier versions, which use cached platform threads. The tasks are bounded by the slots of the queues either way.
+	 * @return the executor
+	 */
+	private ExecutorService newIoExecutor() {
+		try {
+			ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			ioThreads = "virtual";
+			return executor;
+		} catch (ReflectiveOperationException e) {
+			// not available, or a preview feature that was not enabled
+			ioThreads = "platform";
+			return Executors.newCachedThreadPool(task -> {
+				Thread thread = new Thread(task, "pipeline-io");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+	
+	/**
+	 * Prints the command line usage.
+	 */
+	private static void usage() {
+		System.err.println("Usage: java headless.PipelineRunner [-t transformation] [-p name=value]... [-threads n] [-queue n] [-format ext] [-fixedPoint] inputDir outputDir");
+		System.err.println("Transformations: " + String.join(", ", Transformations.names));
+	}
+	
+	/**
+	 * An image passing through the pipeline.
+	 */
+	private static class Item {
+		
+		/**
+		 * Creates the item of an image file.
+		 * @param inputFile the image file to transform
+		 * @param outputFile the file to save the transformed image to
+		 */
+		Item(File inputFile, File outputFile) {
+			this.inputFile = inputFile;
+			this.outputFile = outputFile;
+		}
+		
+		// the files, and the image between the stages
+		final File inputFile;
+		final File outputFile;
+		volatile float[][][] hsbImage;
+		volatile BufferedImage transformedImage;
+		
+		// the error of the stage that failed, null if none did
+		volatile Throwable error;
+		
+	}
+	
+	/**
+	 * The number of images and the busy time of a stage.
+	 */
+	private static class StageStats {
+		
+		/**
+		 * Adds an image processed by the stage.
+		 * @param nanos the time spent on the image
+		 */
+		void add(long nanos) {
+			images.incrementAndGet();
+			busyNanos.addAndGet(nanos);
+		}
+		
+		/**
+		 * Prints the stage.
+		 * @param name the name of the stage
+		 * @param seconds the time the pipeline ran
+		 */
+		void print(String name, double seconds) {
+			int count = images.get();
+			double busy = busyNanos.get() / 1e9;
+			System.out.printf("%-10s %d images, %.2f images/s, %.1f ms per image, %.2f images in progress on average%n", name, count, count / seconds, (count == 0) ? 0.0 : busy * 1000 / count, busy / seconds);
+		}
+		
+		private final AtomicInteger images = new AtomicInteger();
+		private final AtomicLong busyNanos = new AtomicLong();
+		
+	}
+	
+	/**
+	 * The depth of a queue, sampled whenever an image enters it.
+	 */
+	private static class QueueDepth {
+		
+		/**
+		 * Adds a sample.
+		 * @param depth the depth of the queue
+		 */
+		void add(int depth) {
+			samples.incrementAndGet();
+			sum.addAndGet(depth);
+			max.accumulateAndGet(depth, Math::max);
+		}
+		
+		/**
+		 * Prints the queue.
+		 * @param name the name of the queue
+		 * @param capacity the capacity of the queue
+		 */
+		void print(String name, int capacity) {
+			int count = samples.get();
+			System.out.printf("%-17s average depth %.1f, maximum depth %d of %d%n", name, (count == 0) ? 0.0 : ((double) sum.get()) / count, max.get(), capacity);
+		}
+		
+		private final AtomicInteger samples = new AtomicInteger();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicInteger max = new AtomicInteger();
+		
+	}
+	
+	// the transformation
+	private final String transformationName;
+	private final Map<String, Integer> parameters;
+	private final boolean fixedPoint;
+	
+	// the number of transforming threads and the capacity of the queues
+	private final int threads;
+	private final int queueCapacity;
+	
+	// the queues between the stages
+	private final BlockingQueue<Item> decoded;
+	private final BlockingQueue<Item> transformed;
+	
+	// virtual or platform I/O threads
+	private String ioThreads;
+	
+	// the statistics of the stages and queues
+	private final StageStats decodeStats = new StageStats();
+	private final StageStats transformStats = new StageStats();
+	private final StageStats encodeStats = new StageStats();
+	private final QueueDepth decodedDepth = new QueueDepth();
+	private final QueueDepth transformedDepth = new QueueDepth();
+	
+}
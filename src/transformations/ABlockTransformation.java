@@ -0,0 +1,174 @@
+package transformations;
+
+import java.util.Arrays;
+
+import javax.swing.JLabel;
+
+/**
+ * Abstract block transformation where the image is decomposed into blocks, a mapping function is calculated for each block,
+ * and every pixel is mapped by bilinear interpolation of the mapping functions of its four neighboring blocks.
+ * The decomposition (Step 1), the block statistics (Step 2) and the interpolation (Step 5) are the same for every block transformation
+ * and are implemented here. The mapping functions (Steps 3 and 4) are implemented by each transformation from the block statistics alone,
+ * so they can be used on their own, e.g. to reuse them across frames or to transform an image streamed in strips.
+ * @author JLepere2
+ * @date 05/16/2018
+ */
+public abstract class ABlockTransformation extends ATransformation {
+
+	/**
+	 * Abstract block transformation instantiation.
+	 * @param hsbImage the original image in hsb format
+	 * @param imageLabel the image label to modify for displaying the transformed image
+	 */
+	public ABlockTransformation(float[][][] hsbImage, JLabel imageLabel) {
+		super(hsbImage, imageLabel);
+	}
+	
+	public int[][] getTransformedBrightnessValues(int[][] hsbBrightnessValues) {
+		return getTransformedBrightnessValues(hsbBrightnessValues, 1);
+	}
+	
+	protected int[][] getTransformedBrightnessValues(int[][] hsbBrightnessValues, int reduction) {
+		
+		// the block size of this request, the sliders may change the field while transforming in the background
+		int blockSize = this.blockSize;
+		
+		
+		// -- STEP 1 : Image Decomposition -- //
+		
+		BlockGrid grid = getGrid(hsbBrightnessValues, blockSize);
+		
+		
+		// -- STEPS 2 to 4 : Mapping Functions -- //
+		
+		int[][][] mappingsPerBlock = getMappingsPerBlock(hsbBrightnessValues, grid, blockSize, reduction);
+		
+		
+		// STEP 5 - Bilinear Interpolation -- //
+		
+		StageEvent event = StageEvent.begin(this, "interpolation", hsbBrightnessValues, blockSize);
+		
+		// the transformed brightness values, interpolated concurrently in stripes of rows
+		int[][] hsbNewBrightnessValues = BilinearInterpolation.interpolate(hsbBrightnessValues, mappingsPerBlock, grid, parallel, fixedPoint);
+		event.commit();
+		
+		// return the transformed brightness values
+		return hsbNewBrightnessValues;
+		
+	}
+	
+	/**
+	 * Transforms values of a higher bit depth than the brightness values, e.g. 12 or 16 bit samples, keeping their full precision.
+	 * The values are compressed into the bins of the histograms for the mapping functions, which are interpolated between the bins, see BinCompression.
+	 * The number of bins is fixed at hsbBrightnessMaxIntValue+1, 1001, whatever the bit depth: the clipping thresholds and gamma curves of the
+	 * transformations are defined on those levels, and the memory of the histograms and mapping functions stays bounded. With fixed point,
+	 * the interpolation uses fixed point weights as for the brightness values.
+	 * @param values the values to transform, from 0 to the maximum value
+	 * @param maxValue the maximum value, e.g. 65535 for 16 bit samples
+	 * @return the transformed values, from 0 to the maximum value
+	 */
+	public int[][] getTransformedValues(int[][] values, int maxValue) {
+		
+		// the block size of this request, the sliders may change the field while transforming in the background
+		int blockSize = this.blockSize;
+		
+		// the bins of the values
+		BinCompression compression = new BinCompression(maxValue, hsbBrightnessMaxIntValue);
+		int[][] bins = compression.compress(values, new int[values.length][(values.length == 0) ? 0 : values[0].length]);
+		
+		// Steps 1 to 4 on the bins
+		BlockGrid grid = getGrid(bins, blockSize);
+		int[][][] mappingsPerBlock = getMappingsPerBlock(bins, grid, blockSize);
+		
+		// Step 5 between the bins at the precision of the values
+		StageEvent event = StageEvent.begin(this, "interpolation", grid, blockSize);
+		int[][] newValues = compression.interpolateStrip(values, 0, mappingsPerBlock, grid, parallel, fixedPoint, new int[grid.numPixelsCol][grid.numPixelsRow]);
+		event.commit();
+		return newValues;
+		
+	}
+	
+	/**
+	 * Decomposes the image into blocks (Step 1).
+	 * @param hsbBrightnessValues the brightness values to transform
+	 * @param blockSize the number of blocks in each dimension
+	 * @return the block grid of the image
+	 */
+	public BlockGrid getGrid(int[][] hsbBrightnessValues, int blockSize) {
+		
+		// flight recorder event of the step, committed when the step is done
+		StageEvent event = StageEvent.begin(this, "decomposition", hsbBrightnessValues, blockSize);
+		
+		// image block parameters, blocks may differ in size by one pixel when the image is not divisible
+		int numPixelsCol = hsbBrightnessValues.length;
+		int numPixelsRow = (numPixelsCol == 0) ? 0 : hsbBrightnessValues[0].length;
+		BlockGrid grid = BlockGrid.getGrid(numPixelsCol, numPixelsRow, blockSize, blockSize);
+		
+		// the blocks are a view of the brightness values through the grid, the image is not copied
+		event.commit();
+		return grid;
+		
+	}
+	
+	/**
+	 * Calculates the mapping function of each block (Steps 2 to 4).
+	 * @param hsbBrightnessValues the brightness values to transform
+	 * @param grid the block grid of the image
+	 * @param blockSize the number of blocks in each dimension of the grid
+	 * @return the mapping function of each block indexed by block column, block row and brightness, must not be modified
+	 */
+	public int[][][] getMappingsPerBlock(int[][] hsbBrightnessValues, BlockGrid grid, int blockSize) {
+		return getMappingsPerBlock(hsbBrightnessValues, grid, blockSize, 1);
+	}
+	
+	/**
+	 * Calculates the mapping function of each block of brightness values reduced in resolution (Steps 2 to 4).
+	 * @param hsbBrightnessValues the brightness values to transform
+	 * @param grid the block grid of the image
+	 * @param blockSize the number of blocks in each dimension of the grid
+	 * @param reduction the reduction of the brightness values, 1 at full resolution and PREVIEW_REDUCTION for a preview
+	 * @return the mapping function of each block indexed by block column, block row and brightness, must not be modified
+	 */
+	protected int[][][] getMappingsPerBlock(int[][] hsbBrightnessValues, BlockGrid grid, int blockSize, int reduction) {
+		
+		// -- STEP 2 : Histogram Calculations -- //
+		
+		// flight recorder event of the step, committed when the step is done
+		StageEvent event = StageEvent.begin(this, "histograms", hsbBrightnessValues, blockSize);
+		
+		// histogram, minimum, maximum, average and standard deviation of each block, computed concurrently over the blocks, only recalculated for a new image or block size
+		// the previews while a slider is dragged and the full image have their own stage, so switching between them does not recalculate either
+		Stage<BlockStatistics> statisticsStage = (reduction == 1) ? this.statisticsStage : previewStatisticsStage;
+		BlockStatistics statistics = statisticsStage.get(Arrays.asList(hsbBrightnessValues, blockSize), () -> new BlockStatistics(hsbBrightnessValues, grid, hsbBrightnessMaxIntValue, withDeviation, parallel));
+		event.commit();
+		
+		// stop here if a later transformation was requested
+		checkCancelled();
+		
+		
+		// -- STEPS 3 and 4 : Mapping Functions -- //
+		
+		return getMappingsPerBlock(statistics, grid, blockSize);
+		
+	}
+	
+	/**
+	 * Calculates the mapping function of each block from its statistics (Steps 3 and 4).
+	 * @param statistics the statistics of each block of the image
+	 * @param grid the block grid of the image
+	 * @param blockSize the number of blocks in each dimension of the grid
+	 * @return the mapping function of each block indexed by block column, block row and brightness, must not be modified
+	 */
+	public abstract int[][][] getMappingsPerBlock(BlockStatistics statistics, BlockGrid grid, int blockSize);
+	
+	// the number of blocks in each dimension
+	protected int blockSize;
+	
+	// whether the mapping functions use the average and standard deviation of each block
+	protected boolean withDeviation = true;
+	
+	// memoized block statistics of the image and of its reduced preview, recalculated only for a new image or block size
+	private final Stage<BlockStatistics> statisticsStage = new Stage<>("statistics");
+	private final Stage<BlockStatistics> previewStatisticsStage = new Stage<>("statistics");
+	
+}
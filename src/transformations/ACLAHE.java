@@ -1,22 +1,21 @@
 package transformations;
 
 import java.awt.GridLayout;
+import java.util.Arrays;
 import java.util.stream.IntStream;
 
-import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import utils.SliderPanel;
-import utils.Utilities;
 
 /**
  * Automatic caContrast Limited Adaptive Histogram Equalization transformation algorithm.
  * @author JLepere2
  * @date 05/08/2018
  */
-public class ACLAHE extends ATransformation {
+public class ACLAHE extends ABlockTransformation {
 
 	/**
 	 * Creates object for ACLAHE transformation. 
@@ -39,7 +38,7 @@ public class ACLAHE extends ATransformation {
 		blockSizePanel.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
 				blockSize = blockSizePanel.getCurrentValue();
-				transform();
+				transform(blockSizePanel.getValueIsAdjusting());
 			}
 		});
 		
@@ -48,7 +47,7 @@ public class ACLAHE extends ATransformation {
 		alphaPanel.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
 				alpha = alphaPanel.getCurrentValue();
-				transform();
+				transform(alphaPanel.getValueIsAdjusting());
 			}
 		});
 		
@@ -57,7 +56,7 @@ public class ACLAHE extends ATransformation {
 		PPanel.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
 				P = PPanel.getCurrentValue();
-				transform();
+				transform(PPanel.getValueIsAdjusting());
 			}
 		});
 		
@@ -67,7 +66,7 @@ public class ACLAHE extends ATransformation {
 		parameterPanel.add(PPanel);
 	}
 	
-	public void transform() {
+	public int[][][] getMappingsPerBlock(BlockStatistics statistics, BlockGrid grid, int blockSize) {
 		
 		/*
 		 * 5 Steps
@@ -76,103 +75,28 @@ public class ACLAHE extends ATransformation {
 		 * 3) Histogram Clipping Redistribution
 		 * 4) Histogram Equalization Function Mapping
 		 * 5) Bilinear Interpolation
+		 * Steps 1, 2 and 5 are the same for all block transformations, see ABlockTransformation
 		 */
 		
 		
-		// -- STEP 1 : Image Decomposition -- //
+		// the parameters of this request, the sliders may change the fields while transforming in the background
+		int alpha = this.alpha;
+		int P = this.P;
 		
-		// image block parameters
-		int numBlocksCol = blockSize;
-		int numBlocksRow = blockSize;
-		int pixelsPerBlockCol = Utilities.IMAGE_SIZE / numBlocksCol;
-		int pixelsPerBlockRow = Utilities.IMAGE_SIZE / numBlocksRow;
-		int pixelsPerBock = pixelsPerBlockCol * pixelsPerBlockRow;
-		
-		/*
-		 *  Creates an array for storing the cut image where index:
-		 *  0 := block column
-		 *  1 := block row
-		 *  2 := pixel column
-		 *  3 := pixel row
-		 */
-		int[][][][] cutImage = new int[numBlocksCol][numBlocksRow][pixelsPerBlockCol][pixelsPerBlockRow];
-		
-		// initialize the cut image
-		for (int c = 0; c < Utilities.IMAGE_SIZE; c ++) {
-			for (int r = 0; r < Utilities.IMAGE_SIZE; r ++) {
-				// get the index for the cut image
-				int blockCol = c / pixelsPerBlockCol;
-				int blockRow = r / pixelsPerBlockRow;
-				int pixelCol = c % pixelsPerBlockCol;
-				int pixelRow = r % pixelsPerBlockRow;
-				
-				// set the cut image pixel
-				cutImage[blockCol][blockRow][pixelCol][pixelRow] = hsbBrightnessValues[c][r];
-			}
-		}
+		// the values of this request in the order of the parameter names, recorded by the flight recorder events of the steps
+		int[] parameterValues = new int[] {blockSize, alpha, P};
 		
 		
-		// -- STEP 2 : Histogram Calculations -- //
+		// image block parameters of the grid from Step 1
+		int numBlocksCol = grid.numBlocksCol;
+		int numBlocksRow = grid.numBlocksRow;
 		
-		// Initializes an array for holding the histogram of EACH block 
-		int[][][] histogramsPerBlock = new int[numBlocksCol][numBlocksRow][hsbBrightnessMaxIntValue+1];
 		
-		// Initialize an array for holding the minimum, maximum, and average value of each block, for future use
-		int[][] minPerBlock = new int[numBlocksCol][numBlocksRow];
-		int[][] maxPerBlock = new int[numBlocksCol][numBlocksRow];
-		int[][] avgPerBlock = new int[numBlocksCol][numBlocksRow];
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				minPerBlock[blockC][blockR] = Integer.MAX_VALUE;
-				maxPerBlock[blockC][blockR] = Integer.MIN_VALUE;
-			}
-		}
-		
-		// set the histogram for each block
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				for (int pixelC = 0; pixelC < pixelsPerBlockCol; pixelC ++) {
-					for (int pixelR = 0; pixelR < pixelsPerBlockRow; pixelR ++) {
-						// get the brightness value
-						int brightness = cutImage[blockC][blockR][pixelC][pixelR];
-						
-						// increment the brightness value index of the histogram for the block
-						histogramsPerBlock[blockC][blockR][brightness] += 1;
-						
-						// update min, max and avg count values per block
-						if (brightness < minPerBlock[blockC][blockR]) minPerBlock[blockC][blockR] = brightness;
-						if (brightness > maxPerBlock[blockC][blockR]) maxPerBlock[blockC][blockR] = brightness;
-						avgPerBlock[blockC][blockR] += brightness;
-					}
-				}
-				// calculate average per block
-				avgPerBlock[blockC][blockR] /= pixelsPerBock;
-			}
-		}
-		
-		// standard deviation for each block
-		double[][] stdPerBlock = new double[numBlocksCol][numBlocksRow];
-		
-		// calculate the standard deviation for each block
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				// get the average for this block
-				int avg = avgPerBlock[blockC][blockR];
-				
-				// update stdev
-				for (int pixelC = 0; pixelC < pixelsPerBlockCol; pixelC ++) {
-					for (int pixelR = 0; pixelR < pixelsPerBlockRow; pixelR ++) {
-						stdPerBlock[blockC][blockR] += Math.pow(cutImage[blockC][blockR][pixelC][pixelR]-avg, 2);
-					}
-				}
-				
-				// divide by number of pixels in block
-				stdPerBlock[blockC][blockR] /= pixelsPerBock;
-				
-				// take sqrt
-				stdPerBlock[blockC][blockR] = Math.sqrt(stdPerBlock[blockC][blockR]);
-			}
-		}
+		// the minimum, maximum, average and standard deviation of each block from Step 2
+		int[][] minPerBlock = statistics.minPerBlock;
+		int[][] maxPerBlock = statistics.maxPerBlock;
+		int[][] avgPerBlock = statistics.avgPerBlock;
+		double[][] stdPerBlock = statistics.stdPerBlock;
 		
 		
 		// -- STEP 3 : Histogram Clipping Redistribution -- //
@@ -187,148 +111,132 @@ public class ACLAHE extends ATransformation {
 		    Avg = average pixel value
 		    P, α = passed parameters
 		 */
-		double M = pixelsPerBlockCol * pixelsPerBlockRow;
-		
-		// redistribute the histogram
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				// calculate the clipping point for this block
-				int lmax = maxPerBlock[blockC][blockR];
-				double N = lmax - minPerBlock[blockC][blockR];
-				int avg = avgPerBlock[blockC][blockR];
-				double std = stdPerBlock[blockC][blockR];
-				int B = (int) ((M/N)*(1.0 + P*(lmax/((float) hsbBrightnessMaxIntValue)) + (alpha/100.0)*(std/(avg+0.0001))));
-				
-				// store the total clipped for redistribution
-				int totalClipped = 0;
-				
-				// clip the histogram
-				for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
-					// get the count for this brightness value and block
-					int brightnessCount = histogramsPerBlock[blockC][blockR][brightness];
-					if (brightnessCount > B) {
-						// add amount clipped
-						totalClipped += brightnessCount - B;
-						// clip
-						histogramsPerBlock[blockC][blockR][brightness] = B;
-					}
-				}
-				
-				// redistribute amount for each brightness
-				int redistributionPerBrightness = totalClipped / (hsbBrightnessMaxIntValue+1);
-				
-				// redistribute
-				for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
-					histogramsPerBlock[blockC][blockR][brightness] += redistributionPerBrightness;
+		 
+		// flight recorder event of each step, committed when the step is done
+		StageEvent event = StageEvent.begin(this, "clipping", grid, blockSize, parameterValues);
+		
+		// the clipped histograms, only recalculated when the block statistics, alpha or P change
+		int[][][] clippedHistogramsPerBlock = clippingStage.get(Arrays.asList(statistics, alpha, P), () -> {
+			
+			// copy of the block histograms to clip in place
+			int[][][] histogramsPerBlock = Stage.copy(statistics.histogramsPerBlock);
+			
+			// the clipping and redistribution kernels, vectorized when available
+			Kernels kernels = Kernels.getKernels();
+			
+			// redistribute the histogram
+			for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
+				for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
+					double M = grid.pixelsPerBlock(blockC, blockR);
+					
+					// calculate the clipping point for this block
+					int lmax = maxPerBlock[blockC][blockR];
+					double N = lmax - minPerBlock[blockC][blockR];
+					int avg = avgPerBlock[blockC][blockR];
+					double std = stdPerBlock[blockC][blockR];
+					int B = (int) ((M/N)*(1.0 + P*(lmax/((float) hsbBrightnessMaxIntValue)) + (alpha/100.0)*(std/(avg+0.0001))));
+					
+					// clip the histogram and store the total clipped for redistribution
+					int totalClipped = kernels.clip(histogramsPerBlock[blockC][blockR], 0, hsbBrightnessMaxIntValue+1, B);
+					
+					// redistribute amount for each brightness
+					int redistributionPerBrightness = totalClipped / (hsbBrightnessMaxIntValue+1);
+					
+					// redistribute
+					kernels.redistribute(histogramsPerBlock[blockC][blockR], redistributionPerBrightness);
 				}
 			}
-		}
+			
+			return histogramsPerBlock;
+		});
+		event.commit();
+		
+		checkCancelled();
 		
 		
 		// STEP 4 - Histogram Equalization Function Mapping -- //
 		
-		// Calculate mapped value for each brightness value per block w/ histogram equalization
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				// calculate running histogram
-				for (int brightness = 1; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
-					histogramsPerBlock[blockC][blockR][brightness] += histogramsPerBlock[blockC][blockR][brightness-1];
-				}
-				
-				// the maximum value for this block
-				int maxValueInBlock = maxPerBlock[blockC][blockR];
-				
-				// the histogram equalization factor
-				double heFactor = ((double) maxValueInBlock) / pixelsPerBock;
-				
-				// calculate mapping function w/ histogram equalization
-				for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
-					histogramsPerBlock[blockC][blockR][brightness] = (int) (heFactor * histogramsPerBlock[blockC][blockR][brightness]);
+		event = StageEvent.begin(this, "mapping", grid, blockSize, parameterValues);
+		
+		// the mapping functions, only recalculated with the clipped histograms
+		int[][][] mappingsPerBlock = mappingStage.get(Arrays.asList(clippedHistogramsPerBlock), () -> {
+			
+			// copy of the clipped histograms to map in place
+			int[][][] histogramsPerBlock = Stage.copy(clippedHistogramsPerBlock);
+			
+			// Calculate mapped value for each brightness value per block w/ histogram equalization
+			for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
+				for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
+					// calculate running histogram
+					for (int brightness = 1; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
+						histogramsPerBlock[blockC][blockR][brightness] += histogramsPerBlock[blockC][blockR][brightness-1];
+					}
+					
+					// the maximum value for this block
+					int maxValueInBlock = maxPerBlock[blockC][blockR];
+					
+					// the histogram equalization factor
+					double heFactor = ((double) maxValueInBlock) / grid.pixelsPerBlock(blockC, blockR);
+					
+					// calculate mapping function w/ histogram equalization
+					for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
+						histogramsPerBlock[blockC][blockR][brightness] = (int) (heFactor * histogramsPerBlock[blockC][blockR][brightness]);
+					}
 				}
 			}
-		}
-		
+			
+			return histogramsPerBlock;
+		});
+		event.commit();
 		
-		// STEP 5 - Bilinear Interpolation -- //
+		checkCancelled();
 		
-		// the transformed image
-		int[][] hsbBrightnessNewValues = new int[Utilities.IMAGE_SIZE][Utilities.IMAGE_SIZE];
 		
-		// half of the block size col and row
-		int halfPixelsPerBlockCol = pixelsPerBlockCol / 2;
-		int halfPixelsPerBlockRow = pixelsPerBlockRow / 2;
+		// return the mapping functions, interpolated in Step 5
+		return mappingsPerBlock;
 		
-		// set the new image
-		for (int c = 0; c < Utilities.IMAGE_SIZE; c ++) {
-			for (int r = 0; r < Utilities.IMAGE_SIZE; r ++) {
-				// the original pixel value
-				int p = hsbBrightnessValues[c][r];
-				
-				// block coordinates for this point
-				int blockC = c / pixelsPerBlockCol;
-				int blockR = r / pixelsPerBlockRow;
-				
-				// SPATIAL coordinates for the center of the block
-				int centerBlockC = blockC * pixelsPerBlockCol + halfPixelsPerBlockCol;
-				int centerBlockR = blockR * pixelsPerBlockRow + halfPixelsPerBlockRow;
-				
-				// get block column 1 and 2
-				int bc1, bc2;
-	            if (c < centerBlockC) {
-	                bc1 = blockC - 1;
-	                if (bc1 < 0) bc1 = 0;
-	                bc2 = blockC;
-	            } else {
-	                bc1 = blockC;
-	                bc2 = blockC + 1;
-	                if (bc2 >= numBlocksCol) bc2 = blockC;
-	            }
-	            
-	            // get block row 1 and 2
-	            int br1, br2;
-	            if (r < centerBlockR) {
-	                br1 = blockR - 1;
-	                if (br1 < 0) br1 = 0;
-	                br2 = blockR;
-	            } else {
-	                br1 = blockR;
-	                br2 = blockR + 1;
-	                if (br2 >= numBlocksRow) br2 = blockR;
-	            }
-	            
-	            // spatial coordinate of block centers
-	            int c1 = bc1 * pixelsPerBlockCol + halfPixelsPerBlockCol;
-	            int c2 = bc2 * pixelsPerBlockCol + halfPixelsPerBlockCol;
-	            int r1 = br1 * pixelsPerBlockRow + halfPixelsPerBlockRow;
-	            int r2 = br2 * pixelsPerBlockRow + halfPixelsPerBlockRow;
-	            
-	            // get m and n values
-	            double m = (c2 - c1 == 0) ? 0 :  ((double) (c2 - c)) / (c2 - c1);
-	            double n = (r2 - r1 == 0) ? 0 :  ((double) (r2 - r)) / (r2 - r1);
-
-	            // histogram equalization function mapping values
-	            int Ta = histogramsPerBlock[bc1][br1][p];
-	            int Tb = histogramsPerBlock[bc1][br2][p];
-	            int Tc = histogramsPerBlock[bc2][br1][p];
-	            int Td = histogramsPerBlock[bc2][br2][p];
-	            
-	            // calculate and set transformed pixel value
-	            hsbBrightnessNewValues[c][r] =(int) (m * (n * Ta + (1 - n) * Tb) + (1 - m) * (n * Tc + (1 - n) * Td));
-	            
-			}
+	}
+	
+	public String[] getParameterNames() {
+		return new String[] {"blockSize", "alpha", "P"};
+	}
+	
+	public int getParameter(String parameterName) {
+		switch (parameterName) {
+			case "blockSize": return blockSize;
+			case "alpha": return alpha;
+			case "P": return P;
+			default: return super.getParameter(parameterName);
+		}
+	}
+	
+	public int[] getParameterRange(String parameterName) {
+		switch (parameterName) {
+			case "blockSize": return new int[] {1, 16};
+			case "alpha": return new int[] {0, 500};
+			case "P": return new int[] {1, 40};
+			default: return super.getParameterRange(parameterName);
+		}
+	}
+	
+	public void setParameter(String parameterName, int value) {
+		switch (parameterName) {
+			case "blockSize": blockSize = value; break;
+			case "alpha": alpha = value; break;
+			case "P": P = value; break;
+			default: super.setParameter(parameterName, value);
 		}
-		
-		// set transformed image
-		imageLabel.setIcon(new ImageIcon(Utilities.createBufferedImage(hsbImage, hsbBrightnessNewValues, hsbBrightnessMaxIntValue)));
-		
 	}
 	
 	public String toString() {
 		return "ACLAHE";
 	}
 	
-	private int blockSize;
 	private int alpha;
 	private int P;
 	
+	// memoized stages, each recalculated only when its inputs change
+	private final Stage<int[][][]> clippingStage = new Stage<>("clipping");
+	private final Stage<int[][][]> mappingStage = new Stage<>("mapping");
+	
 }
\ No newline at end of file
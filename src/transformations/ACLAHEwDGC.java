@@ -1,22 +1,21 @@
 package transformations;
 
 import java.awt.GridLayout;
+import java.util.Arrays;
 import java.util.stream.IntStream;
 
-import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import utils.SliderPanel;
-import utils.Utilities;
 
 /**
  * Automatic Contrast Limited Adaptive Histogram Equalization with Dual Gamma Correction transformation algorithm.
  * @author JLepere2
  * @date 05/08/2018
  */
-public class ACLAHEwDGC extends ATransformation {
+public class ACLAHEwDGC extends ABlockTransformation {
 
 	/**
 	 * Creates object for ACLAHE transformation. 
@@ -40,7 +39,7 @@ public class ACLAHEwDGC extends ATransformation {
 		blockSizePanel.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
 				blockSize = blockSizePanel.getCurrentValue();
-				transform();
+				transform(blockSizePanel.getValueIsAdjusting());
 			}
 		});
 		
@@ -49,7 +48,7 @@ public class ACLAHEwDGC extends ATransformation {
 		alphaPanel.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
 				alpha = alphaPanel.getCurrentValue();
-				transform();
+				transform(alphaPanel.getValueIsAdjusting());
 			}
 		});
 		
@@ -58,7 +57,7 @@ public class ACLAHEwDGC extends ATransformation {
 		PPanel.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
 				P = PPanel.getCurrentValue();
-				transform();
+				transform(PPanel.getValueIsAdjusting());
 			}
 		});
 		
@@ -67,7 +66,7 @@ public class ACLAHEwDGC extends ATransformation {
 		DPanel.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
 				D = DPanel.getCurrentValue();
-				transform();
+				transform(DPanel.getValueIsAdjusting());
 			}
 		});
 		
@@ -78,7 +77,7 @@ public class ACLAHEwDGC extends ATransformation {
 		parameterPanel.add(DPanel);
 	}
 
-	public void transform() {
+	public int[][][] getMappingsPerBlock(BlockStatistics statistics, BlockGrid grid, int blockSize) {
 		
 		/*
 		 * 5 Steps
@@ -87,127 +86,63 @@ public class ACLAHEwDGC extends ATransformation {
 		 * 3) Histogram Clipping Redistribution
 		 * 4) Histogram Equalization Function Mapping
 		 * 5) Bilinear Interpolation
+		 * Steps 1, 2 and 5 are the same for all block transformations, see ABlockTransformation
 		 */
 		
 		
-		// -- STEP 1 : Image Decomposition -- //
-		
-		// image block parameters
-		int numBlocksCol = blockSize;
-		int numBlocksRow = blockSize;
-		int pixelsPerBlockCol = Utilities.IMAGE_SIZE / numBlocksCol;
-		int pixelsPerBlockRow = Utilities.IMAGE_SIZE / numBlocksRow;
-		int pixelsPerBock = pixelsPerBlockCol * pixelsPerBlockRow;
-		
-		/*
-		 *  Creates an array for storing the cut image where index:
-		 *  0 := block column
-		 *  1 := block row
-		 *  2 := pixel column
-		 *  3 := pixel row
-		 */
-		int[][][][] cutImage = new int[numBlocksCol][numBlocksRow][pixelsPerBlockCol][pixelsPerBlockRow];
-		
-		// initialize the cut image
-		for (int c = 0; c < Utilities.IMAGE_SIZE; c ++) {
-			for (int r = 0; r < Utilities.IMAGE_SIZE; r ++) {
-				// get the index for the cut image
-				int blockCol = c / pixelsPerBlockCol;
-				int blockRow = r / pixelsPerBlockRow;
-				int pixelCol = c % pixelsPerBlockCol;
-				int pixelRow = r % pixelsPerBlockRow;
-				
-				// set the cut image pixel
-				cutImage[blockCol][blockRow][pixelCol][pixelRow] = hsbBrightnessValues[c][r];
-			}
-		}
-		
-		
-		// -- STEP 2 : Histogram Calculations -- //
-		
-		// Initializes an array for holding the histogram of EACH block 
-		int[][][] histogramsPerBlock = new int[numBlocksCol][numBlocksRow][hsbBrightnessMaxIntValue+1];
-		
-		// Initialize an array for holding the minimum, maximum, and average value of each block, for future use
-		int[][] minPerBlock = new int[numBlocksCol][numBlocksRow];
-		int[][] maxPerBlock = new int[numBlocksCol][numBlocksRow];
-		int[][] avgPerBlock = new int[numBlocksCol][numBlocksRow];
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				minPerBlock[blockC][blockR] = Integer.MAX_VALUE;
-				maxPerBlock[blockC][blockR] = Integer.MIN_VALUE;
-			}
-		}
-		
-		// get max value and array for holding the histogram globally for 0.75 cdf
-		int Lmax = Integer.MIN_VALUE;
-		int[] globalHistogram = new int[hsbBrightnessMaxIntValue+1];
-		
-		// set the histogram for each block
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				for (int pixelC = 0; pixelC < pixelsPerBlockCol; pixelC ++) {
-					for (int pixelR = 0; pixelR < pixelsPerBlockRow; pixelR ++) {
-						// get the brightness value
-						int brightness = cutImage[blockC][blockR][pixelC][pixelR];
-						
-						// increment the brightness value index of the histogram for the block
-						histogramsPerBlock[blockC][blockR][brightness] += 1;
-						
-						// update min, max and avg count values per block
-						if (brightness < minPerBlock[blockC][blockR]) minPerBlock[blockC][blockR] = brightness;
-						if (brightness > maxPerBlock[blockC][blockR]) maxPerBlock[blockC][blockR] = brightness;
-						avgPerBlock[blockC][blockR] += brightness;
-						
-						// update global max
-						if (brightness > Lmax) Lmax = brightness;
-						
-						// update global histogram
-						globalHistogram[brightness] += 1;
-					}
+		// the parameters of this request, the sliders may change the fields while transforming in the background
+		int alpha = this.alpha;
+		int P = this.P;
+		int D = this.D;
+		
+		// the values of this request in the order of the parameter names, recorded by the flight recorder events of the steps
+		int[] parameterValues = new int[] {blockSize, alpha, P, D};
+		
+		
+		// image block parameters of the grid from Step 1
+		int numPixelsCol = grid.numPixelsCol;
+		int numPixelsRow = grid.numPixelsRow;
+		int numBlocksCol = grid.numBlocksCol;
+		int numBlocksRow = grid.numBlocksRow;
+		
+		
+		// the minimum, maximum, average and standard deviation of each block from Step 2
+		int[][] minPerBlock = statistics.minPerBlock;
+		int[][] maxPerBlock = statistics.maxPerBlock;
+		int[][] avgPerBlock = statistics.avgPerBlock;
+		double[][] stdPerBlock = statistics.stdPerBlock;
+		
+		// flight recorder event of each step, committed when the step is done
+		StageEvent event = StageEvent.begin(this, "levels", grid, blockSize, parameterValues);
+		
+		// get max value and Lalpha such that cdf(Lalpha) = 0.75 globally, only recalculated with the block statistics
+		int[] levels = levelsStage.get(Arrays.asList(statistics), () -> {
+			
+			// get max value and the histogram globally for 0.75 cdf
+			int Lmax = statistics.getMax();
+			int[] globalHistogram = statistics.getGlobalHistogram();
+			
+			// gets Lalpha such that cdf(Lalpha) = 0.75
+			int cdfTarget = (int) (((long) numPixelsCol * numPixelsRow) * 0.75);
+			int LalphaDiff = Integer.MAX_VALUE;
+			int Lalpha = 0;
+			for (int i = 0; i < globalHistogram.length; i ++) {
+				if (i > 0) globalHistogram[i] += globalHistogram[i-1];
+				int diff = Math.abs(globalHistogram[i] - cdfTarget);
+				if (diff < LalphaDiff) {
+					LalphaDiff = diff;
+					Lalpha = i;
 				}
-				// calculate average per block
-				avgPerBlock[blockC][blockR] /= pixelsPerBock;
 			}
-		}
-		
-		// gets Lalpha such that cdf(Lalpha) = 0.75
-		int cdfTarget = (int) ((pixelsPerBock * numBlocksCol * numBlocksRow) * 0.75);
-		int LalphaDiff = Integer.MAX_VALUE;
-		int Lalpha = 0;
-		for (int i = 0; i < globalHistogram.length; i ++) {
-			if (i > 0) globalHistogram[i] += globalHistogram[i-1];
-			int diff = Math.abs(globalHistogram[i] - cdfTarget);
-			if (diff < LalphaDiff) {
-				LalphaDiff = diff;
-				Lalpha = i;
-			}
-		}
-		
-		
-		// standard deviation for each block
-		double[][] stdPerBlock = new double[numBlocksCol][numBlocksRow];
+			
+			return new int[] {Lmax, Lalpha};
+		});
+		int Lmax = levels[0];
+		int Lalpha = levels[1];
+		event.commit();
 		
-		// calculate the standard deviation for each block
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				// get the average for this block
-				int avg = avgPerBlock[blockC][blockR];
-				
-				// update stdev
-				for (int pixelC = 0; pixelC < pixelsPerBlockCol; pixelC ++) {
-					for (int pixelR = 0; pixelR < pixelsPerBlockRow; pixelR ++) {
-						stdPerBlock[blockC][blockR] += Math.pow(cutImage[blockC][blockR][pixelC][pixelR]-avg, 2);
-					}
-				}
-				
-				// divide by number of pixels in block
-				stdPerBlock[blockC][blockR] /= pixelsPerBock;
-				
-				// take sqrt
-				stdPerBlock[blockC][blockR] = Math.sqrt(stdPerBlock[blockC][blockR]);
-			}
-		}
+		// stop here if a later transformation was requested
+		checkCancelled();
 		
 		
 		// -- STEP 3 : Histogram Clipping Redistribution -- //
@@ -222,197 +157,228 @@ public class ACLAHEwDGC extends ATransformation {
 		    Avg = average pixel value
 		    P, α = passed parameters
 		 */
-		double M = pixelsPerBlockCol * pixelsPerBlockRow;
-		
-		// redistribute the histogram
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				// calculate the clipping point for this block
-				int lmax = maxPerBlock[blockC][blockR];
-				double N = lmax - minPerBlock[blockC][blockR];
-				int avg = avgPerBlock[blockC][blockR];
-				double std = stdPerBlock[blockC][blockR];
-				int B = (int) ((M/N)*(1.0 + P*(lmax/((float) hsbBrightnessMaxIntValue)) + (alpha/100.0)*(std/(avg+0.0001))));
-				
-				// store the total clipped for redistribution
-				int totalClipped = 0;
-				
-				// clip the histogram
-				for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
-					// get the count for this brightness value and block
-					int brightnessCount = histogramsPerBlock[blockC][blockR][brightness];
-					if (brightnessCount > B) {
-						// add amount clipped
-						totalClipped += brightnessCount - B;
-						// clip
-						histogramsPerBlock[blockC][blockR][brightness] = B;
-					}
-				}
-				
-				// redistribute amount for each brightness
-				int redistributionPerBrightness = totalClipped / (hsbBrightnessMaxIntValue+1);
-				
-				// redistribute
-				for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
-					histogramsPerBlock[blockC][blockR][brightness] += redistributionPerBrightness;
+		 
+		event = StageEvent.begin(this, "clipping", grid, blockSize, parameterValues);
+		
+		// the clipped histograms, only recalculated when the block statistics, alpha or P change
+		int[][][] clippedHistogramsPerBlock = clippingStage.get(Arrays.asList(statistics, alpha, P), () -> {
+			
+			// copy of the block histograms to clip in place
+			int[][][] histogramsPerBlock = Stage.copy(statistics.histogramsPerBlock);
+			
+			// the clipping and redistribution kernels, vectorized when available
+			Kernels kernels = Kernels.getKernels();
+			
+			// redistribute the histogram
+			for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
+				for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
+					double M = grid.pixelsPerBlock(blockC, blockR);
+					
+					// calculate the clipping point for this block
+					int lmax = maxPerBlock[blockC][blockR];
+					double N = lmax - minPerBlock[blockC][blockR];
+					int avg = avgPerBlock[blockC][blockR];
+					double std = stdPerBlock[blockC][blockR];
+					int B = (int) ((M/N)*(1.0 + P*(lmax/((float) hsbBrightnessMaxIntValue)) + (alpha/100.0)*(std/(avg+0.0001))));
+					
+					// clip the histogram and store the total clipped for redistribution
+					int totalClipped = kernels.clip(histogramsPerBlock[blockC][blockR], 0, hsbBrightnessMaxIntValue+1, B);
+					
+					// redistribute amount for each brightness
+					int redistributionPerBrightness = totalClipped / (hsbBrightnessMaxIntValue+1);
+					
+					// redistribute
+					kernels.redistribute(histogramsPerBlock[blockC][blockR], redistributionPerBrightness);
 				}
 			}
-		}
+			
+			return histogramsPerBlock;
+		});
+		event.commit();
+		
+		checkCancelled();
 		
 		
 		// STEP 4 - Histogram Equalization Function Mapping -- //
 		
-		// Calculate mapped value for each brightness value per block w/ histogram equalization
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				
-				// store the histogram for pdf calculations
-				int[] storedHisto = new int[hsbBrightnessMaxIntValue+1];
-				storedHisto[0] = histogramsPerBlock[blockC][blockR][0];
-				
-				// min and max pdf
-				int pdfMin = storedHisto[0];
-				int pdfMax = storedHisto[0];
-				
-				// calculate running histogram
-				for (int brightness = 1; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
-					// update for pdf
-					storedHisto[brightness] = histogramsPerBlock[blockC][blockR][brightness];
-					// update min and max pdf
-					if (storedHisto[brightness] < pdfMin) pdfMin = storedHisto[brightness];
-					if (storedHisto[brightness] > pdfMax) pdfMax = storedHisto[brightness];
-					// update for cdf
-					histogramsPerBlock[blockC][blockR][brightness] += histogramsPerBlock[blockC][blockR][brightness-1];
-				}
-				
-				// pdf weighted calculations
-				int[] cumulativeHistoWeighted = new int[hsbBrightnessMaxIntValue+1];
-				for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
-					cumulativeHistoWeighted[brightness] = pdfMax * ((storedHisto[brightness] - pdfMin) / (pdfMax - pdfMin));
-					if (brightness > 0) cumulativeHistoWeighted[brightness] += cumulativeHistoWeighted[brightness-1];
-				}
-				
-				// get sum of cumulatedHistoWeighted
-				int pdfSum = cumulativeHistoWeighted[hsbBrightnessMaxIntValue];
-				
-				// the maximum value for this block
-				int maxValueInBlock = maxPerBlock[blockC][blockR];
-				
-				// r: dynamic range of the block
-				int r = maxPerBlock[blockC][blockR] - minPerBlock[blockC][blockR];
-				
-				// the histogram equalization factor
-				double cdfFactor = (double) histogramsPerBlock[blockC][blockR][hsbBrightnessMaxIntValue];
-				
-				// calculate mapping function w/ histogram equalization
-				for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
+		event = StageEvent.begin(this, "mapping", grid, blockSize, parameterValues);
+		
+		// the Gamma curves of the image, only recalculated with Lmax
+		GammaCurves gammaCurves = gammaStage.get(Arrays.asList(Lmax), () -> new GammaCurves(Lmax, hsbBrightnessMaxIntValue));
+		
+		// the mapping functions with Gamma, and the cumulative histograms for the mappings with the larger of T1 and Gamma, only recalculated with the clipped histograms
+		int[][][][] candidateMappingsPerBlock = mappingStage.get(Arrays.asList(clippedHistogramsPerBlock, gammaCurves, Lalpha), () -> {
+			
+			// copy of the clipped histograms to accumulate in place
+			int[][][] histogramsPerBlock = Stage.copy(clippedHistogramsPerBlock);
+			
+			// mapping functions with Gamma, the larger of T1 and Gamma is calculated from the cumulative histograms in its own stage
+			int[][][] gammaPerBlock = new int[numBlocksCol][numBlocksRow][hsbBrightnessMaxIntValue+1];
+			
+			// Calculate mapped value for each brightness value per block w/ histogram equalization
+			for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
+				for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
 					
-					// get cdf of l
-					double cdf = histogramsPerBlock[blockC][blockR][brightness] / cdfFactor;
+					// store the histogram for pdf calculations
+					int[] storedHisto = new int[hsbBrightnessMaxIntValue+1];
+					storedHisto[0] = histogramsPerBlock[blockC][blockR][0];
 					
-					// weighted enhancement for gamma 1
-					double Wen = Math.pow(((double) Lmax) / Lalpha, 1.0 - (Math.log(Math.E + cdf) / 8));
+					// min and max pdf
+					int pdfMin = storedHisto[0];
+					int pdfMax = storedHisto[0];
 					
-					// T1
-					int T1 = (int) (maxValueInBlock * Wen * cdf);
-					if (T1 > hsbBrightnessMaxIntValue) T1 = hsbBrightnessMaxIntValue;
-					
-					// Gamma calculation
-					int Gamma = (int) (Lmax * Math.pow(((double) brightness)/Lmax, (1.0 + (cumulativeHistoWeighted[brightness]/pdfSum)) / 2.0));
+					// calculate running histogram
+					for (int brightness = 1; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
+						// update for pdf
+						storedHisto[brightness] = histogramsPerBlock[blockC][blockR][brightness];
+						// update min and max pdf
+						if (storedHisto[brightness] < pdfMin) pdfMin = storedHisto[brightness];
+						if (storedHisto[brightness] > pdfMax) pdfMax = storedHisto[brightness];
+						// update for cdf
+						histogramsPerBlock[blockC][blockR][brightness] += histogramsPerBlock[blockC][blockR][brightness-1];
+					}
 					
-					// Set L
-					if (r > ((D*hsbBrightnessMaxIntValue)/100.0)) {
-						histogramsPerBlock[blockC][blockR][brightness] = Math.max(T1, Gamma);
-					} else {
-						histogramsPerBlock[blockC][blockR][brightness] = Gamma;
+					// pdf weighted calculations
+					int[] cumulativeHistoWeighted = new int[hsbBrightnessMaxIntValue+1];
+					for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
+						// a flat histogram has no weighted pdf, which happens for small blocks
+						if (pdfMax > pdfMin) cumulativeHistoWeighted[brightness] = pdfMax * ((storedHisto[brightness] - pdfMin) / (pdfMax - pdfMin));
+						if (brightness > 0) cumulativeHistoWeighted[brightness] += cumulativeHistoWeighted[brightness-1];
 					}
 					
+					// get sum of cumulatedHistoWeighted
+					int pdfSum = cumulativeHistoWeighted[hsbBrightnessMaxIntValue];
+					
+					// Gamma calculation, looked up in the Gamma curves of the image
+					for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
+						gammaPerBlock[blockC][blockR][brightness] = gammaCurves.get(brightness, (pdfSum == 0) ? 0 : cumulativeHistoWeighted[brightness]/pdfSum);
+					}
+				}
+			}
+			
+			return new int[][][][] {gammaPerBlock, histogramsPerBlock};
+		});
+		
+		// the base of the weighted enhancement, the same for every block
+		double levelRatio = ((double) Lmax) / Lalpha;
+		
+		// the mapping functions with the larger of T1 and Gamma of every block, so moving D only chooses between the two mappings of each block
+		int[][][] dualPerBlock = dualStage.get(Arrays.asList(candidateMappingsPerBlock, levelRatio), () -> {
+			int[][][] dual = new int[numBlocksCol][numBlocksRow][];
+			for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
+				for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
+					dual[blockC][blockR] = dualMapping(candidateMappingsPerBlock[1][blockC][blockR], candidateMappingsPerBlock[0][blockC][blockR], maxPerBlock[blockC][blockR], levelRatio);
+				}
+			}
+			return dual;
+		});
+		
+		// Set L: choose the mapping of each block by its dynamic range r, the only part depending on D
+		int[][][] mappingsPerBlock = new int[numBlocksCol][numBlocksRow][];
+		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
+			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
+				int r = maxPerBlock[blockC][blockR] - minPerBlock[blockC][blockR];
+				if (r > ((D*hsbBrightnessMaxIntValue)/100.0)) {
+					// the larger of T1 and Gamma
+					mappingsPerBlock[blockC][blockR] = dualPerBlock[blockC][blockR];
+				} else {
+					mappingsPerBlock[blockC][blockR] = candidateMappingsPerBlock[0][blockC][blockR];
 				}
 			}
 		}
+		event.commit();
 		
+		checkCancelled();
 		
-		// STEP 5 - Bilinear Interpolation -- //
 		
-		// the transformed image
-		int[][] hsbBrightnessNewValues = new int[Utilities.IMAGE_SIZE][Utilities.IMAGE_SIZE];
+		// return the mapping functions, interpolated in Step 5
+		return mappingsPerBlock;
 		
-		// half of the block size col and row
-		int halfPixelsPerBlockCol = pixelsPerBlockCol / 2;
-		int halfPixelsPerBlockRow = pixelsPerBlockRow / 2;
+	}
+	
+	/**
+	 * Calculates the mapping function with the larger of T1 and Gamma for a block.
+	 * T1 only depends on the cdf, so it is only recalculated at the brightness values where the cumulative histogram increases.
+	 * @param cumulativeHistogram the cumulative clipped histogram of the block
+	 * @param gamma the mapping function with Gamma of the block
+	 * @param maxValueInBlock the maximum value of the block
+	 * @param levelRatio Lmax / Lalpha
+	 * @return the mapping function with the larger of T1 and Gamma
+	 */
+	private static int[] dualMapping(int[] cumulativeHistogram, int[] gamma, int maxValueInBlock, double levelRatio) {
+		int[] dual = new int[hsbBrightnessMaxIntValue+1];
 		
-		// set the new image
-		for (int c = 0; c < Utilities.IMAGE_SIZE; c ++) {
-			for (int r = 0; r < Utilities.IMAGE_SIZE; r ++) {
-				// the original pixel value
-				int p = hsbBrightnessValues[c][r];
-				
-				// block coordinates for this point
-				int blockC = c / pixelsPerBlockCol;
-				int blockR = r / pixelsPerBlockRow;
+		// the histogram equalization factor
+		double cdfFactor = (double) cumulativeHistogram[hsbBrightnessMaxIntValue];
+		
+		int T1 = 0;
+		for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
+			if (brightness == 0 || cumulativeHistogram[brightness] != cumulativeHistogram[brightness-1]) {
+				// get cdf of l
+				double cdf = cumulativeHistogram[brightness] / cdfFactor;
 				
-				// SPATIAL coordinates for the center of the block
-				int centerBlockC = blockC * pixelsPerBlockCol + halfPixelsPerBlockCol;
-				int centerBlockR = blockR * pixelsPerBlockRow + halfPixelsPerBlockRow;
+				// weighted enhancement for gamma 1
+				double Wen = Math.pow(levelRatio, 1.0 - (Math.log(Math.E + cdf) / 8));
 				
-				// get block column 1 and 2
-				int bc1, bc2;
-	            if (c < centerBlockC) {
-	                bc1 = blockC - 1;
-	                if (bc1 < 0) bc1 = 0;
-	                bc2 = blockC;
-	            } else {
-	                bc1 = blockC;
-	                bc2 = blockC + 1;
-	                if (bc2 >= numBlocksCol) bc2 = blockC;
-	            }
-	            
-	            // get block row 1 and 2
-	            int br1, br2;
-	            if (r < centerBlockR) {
-	                br1 = blockR - 1;
-	                if (br1 < 0) br1 = 0;
-	                br2 = blockR;
-	            } else {
-	                br1 = blockR;
-	                br2 = blockR + 1;
-	                if (br2 >= numBlocksRow) br2 = blockR;
-	            }
-	            
-	            // spatial coordinate of block centers
-	            int c1 = bc1 * pixelsPerBlockCol + halfPixelsPerBlockCol;
-	            int c2 = bc2 * pixelsPerBlockCol + halfPixelsPerBlockCol;
-	            int r1 = br1 * pixelsPerBlockRow + halfPixelsPerBlockRow;
-	            int r2 = br2 * pixelsPerBlockRow + halfPixelsPerBlockRow;
-	            
-	            // get m and n values
-	            double m = (c2 - c1 == 0) ? 0 :  ((double) (c2 - c)) / (c2 - c1);
-	            double n = (r2 - r1 == 0) ? 0 :  ((double) (r2 - r)) / (r2 - r1);
-
-	            // histogram equalization function mapping values
-	            int Ta = histogramsPerBlock[bc1][br1][p];
-	            int Tb = histogramsPerBlock[bc1][br2][p];
-	            int Tc = histogramsPerBlock[bc2][br1][p];
-	            int Td = histogramsPerBlock[bc2][br2][p];
-	            
-	            // calculate and set transformed pixel value
-	            hsbBrightnessNewValues[c][r] =(int) (m * (n * Ta + (1 - n) * Tb) + (1 - m) * (n * Tc + (1 - n) * Td));
-	            
+				// T1
+				T1 = (int) (maxValueInBlock * Wen * cdf);
+				if (T1 > hsbBrightnessMaxIntValue) T1 = hsbBrightnessMaxIntValue;
 			}
+			
+			// L with T1
+			dual[brightness] = Math.max(T1, gamma[brightness]);
 		}
 		
-		// set transformed image
-		imageLabel.setIcon(new ImageIcon(Utilities.createBufferedImage(hsbImage, hsbBrightnessNewValues, hsbBrightnessMaxIntValue)));
-		
+		return dual;
+	}
+	
+	public String[] getParameterNames() {
+		return new String[] {"blockSize", "alpha", "P", "D"};
+	}
+	
+	public int getParameter(String parameterName) {
+		switch (parameterName) {
+			case "blockSize": return blockSize;
+			case "alpha": return alpha;
+			case "P": return P;
+			case "D": return D;
+			default: return super.getParameter(parameterName);
+		}
+	}
+	
+	public int[] getParameterRange(String parameterName) {
+		switch (parameterName) {
+			case "blockSize": return new int[] {1, 16};
+			case "alpha": return new int[] {0, 500};
+			case "P": return new int[] {1, 40};
+			case "D": return new int[] {0, 100};
+			default: return super.getParameterRange(parameterName);
+		}
+	}
+	
+	public void setParameter(String parameterName, int value) {
+		switch (parameterName) {
+			case "blockSize": blockSize = value; break;
+			case "alpha": alpha = value; break;
+			case "P": P = value; break;
+			case "D": D = value; break;
+			default: super.setParameter(parameterName, value);
+		}
 	}
 	
 	public String toString() {
 		return "ACLAHEwDGC";
 	}
 	
-	private int blockSize;
 	private int alpha;
 	private int P;
 	private int D;
 	
+	// memoized stages, each recalculated only when its inputs change
+	private final Stage<int[]> levelsStage = new Stage<>("levels");
+	private final Stage<GammaCurves> gammaStage = new Stage<>("gamma");
+	private final Stage<int[][][]> clippingStage = new Stage<>("clipping");
+	private final Stage<int[][][][]> mappingStage = new Stage<>("mapping");
+	private final Stage<int[][][]> dualStage = new Stage<>("dual");
+	
 }
@@ -0,0 +1,227 @@
+package transformations;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import javax.swing.JLabel;
+
+/**
+ * Abstract sliding window transformation where every pixel is mapped with the histogram of the window centered on it,
+ * instead of interpolating the mappings of fixed blocks.
+ * The window histogram is maintained incrementally: a histogram is kept for each column of the window height,
+ * moving the window one pixel adds one column histogram and removes another, and moving to the next line adds and
+ * removes one pixel per column histogram. The cost per pixel is therefore independent of the window size.
+ * In parallel, the image is split into bands along the second dimension, each with the column histograms of its own
+ * columns plus the window radius on either side, at least as wide as the window so the overlap stays small. The column
+ * histograms of all bands therefore take at most (numPixelsRow + bands * (windowSize - 1)) * (hsbBrightnessMaxIntValue+1) * 4 bytes,
+ * less than twice those of a serial transformation, e.g. 64MB for an 8000 pixel wide image on 32 threads.
+ * @author JLepere2
+ * @date 05/14/2018
+ */
+public abstract class ASlidingWindowTransformation extends ATransformation {
+
+	/**
+	 * Abstract sliding window transformation instantiation.
+	 * @param hsbImage the original image in hsb format
+	 * @param imageLabel the image label to modify for displaying the transformed image
+	 */
+	public ASlidingWindowTransformation(float[][][] hsbImage, JLabel imageLabel) {
+		super(hsbImage, imageLabel);
+		windowSize = 63;
+	}
+	
+	public int[][] getTransformedBrightnessValues(int[][] hsbBrightnessValues) {
+		return getTransformedBrightnessValues(hsbBrightnessValues, 1);
+	}
+	
+	protected int[][] getTransformedBrightnessValues(int[][] hsbBrightnessValues, int reduction) {
+		
+		// the window size of this request, the sliders may change the field while transforming in the background
+		int windowSize = this.windowSize;
+		
+		// image dimensions and half of the window
+		int numPixelsCol = hsbBrightnessValues.length;
+		int numPixelsRow = (numPixelsCol == 0) ? 0 : hsbBrightnessValues[0].length;
+		int radius = (windowSize / reduction) / 2;
+		
+		// the mapping with the parameters of this request and the image wide values it needs
+		WindowMapping mapping = getWindowMapping(hsbBrightnessValues);
+		
+		// the transformed brightness values
+		int[][] hsbNewBrightnessValues = new int[numPixelsCol][numPixelsRow];
+		
+		// bands along the second dimension, one per thread and at least as wide as the window, each band only keeps the column histograms it overlaps
+		int bands = parallel ? Math.max(1, Math.min(numPixelsRow / (2 * radius + 1), ForkJoinPool.getCommonPoolParallelism())) : 1;
+		
+		IntStream bandIndices = IntStream.range(0, bands);
+		if (parallel) bandIndices = bandIndices.parallel();
+		bandIndices.forEach(band -> {
+			int startR = (int) (((long) band * numPixelsRow) / bands);
+			int endR = (int) (((long) (band + 1) * numPixelsRow) / bands);
+			transformBand(hsbBrightnessValues, hsbNewBrightnessValues, numPixelsRow, radius, mapping, startR, endR);
+		});
+		
+		return hsbNewBrightnessValues;
+		
+	}
+	
+	/**
+	 * Transforms a band of the image along the second dimension.
+	 * @param hsbBrightnessValues the brightness values to transform
+	 * @param hsbNewBrightnessValues the transformed brightness values to set
+	 * @param numPixelsRow the number of pixels in the second dimension of the image
+	 * @param radius half of the window size
+	 * @param mapping maps each pixel with the window histogram
+	 * @param startR the first pixel of the band in the second dimension
+	 * @param endR the pixel after the band in the second dimension
+	 */
+	private void transformBand(int[][] hsbBrightnessValues, int[][] hsbNewBrightnessValues, int numPixelsRow, int radius, WindowMapping mapping, int startR, int endR) {
+		
+		int numPixelsCol = hsbBrightnessValues.length;
+		
+		// the columns the windows of the band overlap, the band plus the radius on either side
+		int lowR = Math.max(0, startR - radius);
+		int highR = Math.min(numPixelsRow, endR + radius);
+		
+		// histogram, count, sum and sum of squares of each overlapped column over the window height, indexed from lowR
+		int[][] columnHistograms = new int[highR - lowR][hsbBrightnessMaxIntValue+1];
+		int[] columnCounts = new int[highR - lowR];
+		long[] columnSums = new long[highR - lowR];
+		long[] columnSquares = new long[highR - lowR];
+		
+		// the window histogram
+		int[] window = new int[hsbBrightnessMaxIntValue+1];
+		
+		for (int c = 0; c < numPixelsCol; c ++) {
+			
+			// stop here if a later transformation was requested
+			checkCancelled();
+			
+			// move the column histograms to the window height of this line
+			if (c == 0) {
+				for (int windowC = 0; windowC <= Math.min(numPixelsCol - 1, radius); windowC ++) {
+					addLine(hsbBrightnessValues[windowC], 1, lowR, highR, columnHistograms, columnCounts, columnSums, columnSquares);
+				}
+			} else {
+				if (c - radius - 1 >= 0) addLine(hsbBrightnessValues[c - radius - 1], -1, lowR, highR, columnHistograms, columnCounts, columnSums, columnSquares);
+				if (c + radius < numPixelsCol) addLine(hsbBrightnessValues[c + radius], 1, lowR, highR, columnHistograms, columnCounts, columnSums, columnSquares);
+			}
+			
+			// window of the first pixel of the band in the line
+			Arrays.fill(window, 0);
+			int count = 0;
+			long sum = 0;
+			long squares = 0;
+			for (int windowR = lowR; windowR < Math.min(highR, startR + radius + 1); windowR ++) {
+				addColumn(window, columnHistograms[windowR - lowR], 1);
+				count += columnCounts[windowR - lowR];
+				sum += columnSums[windowR - lowR];
+				squares += columnSquares[windowR - lowR];
+			}
+			
+			for (int r = startR; r < endR; r ++) {
+				
+				// slide the window by one column
+				if (r > startR) {
+					int removed = r - radius - 1;
+					if (removed >= 0) {
+						addColumn(window, columnHistograms[removed - lowR], -1);
+						count -= columnCounts[removed - lowR];
+						sum -= columnSums[removed - lowR];
+						squares -= columnSquares[removed - lowR];
+					}
+					int added = r + radius;
+					if (added < numPixelsRow) {
+						addColumn(window, columnHistograms[added - lowR], 1);
+						count += columnCounts[added - lowR];
+						sum += columnSums[added - lowR];
+						squares += columnSquares[added - lowR];
+					}
+				}
+				
+				// map the pixel with the window histogram
+				hsbNewBrightnessValues[c][r] = mapping.map(window, count, sum, squares, hsbBrightnessValues[c][r]);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Adds or removes the pixels of a line in the overlapped columns to the column histograms.
+	 * @param pixels the brightness values of the line
+	 * @param sign 1 to add and -1 to remove
+	 * @param lowR the first overlapped column, the column of the first histogram
+	 * @param highR the column after the overlapped columns
+	 * @param columnHistograms the histogram of each overlapped column
+	 * @param columnCounts the number of pixels of each overlapped column
+	 * @param columnSums the sum of the brightness values of each overlapped column
+	 * @param columnSquares the sum of the squared brightness values of each overlapped column
+	 */
+	private static void addLine(int[] pixels, int sign, int lowR, int highR, int[][] columnHistograms, int[] columnCounts, long[] columnSums, long[] columnSquares) {
+		for (int r = lowR; r < highR; r ++) {
+			int brightness = pixels[r];
+			columnHistograms[r - lowR][brightness] += sign;
+			columnCounts[r - lowR] += sign;
+			columnSums[r - lowR] += sign * brightness;
+			columnSquares[r - lowR] += sign * (long) brightness * brightness;
+		}
+	}
+	
+	/**
+	 * Adds or removes a column histogram to the window histogram.
+	 * @param window the window histogram
+	 * @param column the column histogram
+	 * @param sign 1 to add and -1 to remove
+	 */
+	private static void addColumn(int[] window, int[] column, int sign) {
+		for (int brightness = 0; brightness < window.length; brightness ++) {
+			window[brightness] += sign * column[brightness];
+		}
+	}
+	
+	/**
+	 * Gets the mapping of the pixels of one transformation, with the parameters of the request and any image wide values it needs,
+	 * so parameters changed by the sliders while transforming in the background do not apply to part of the image.
+	 * @param hsbBrightnessValues the brightness values to transform
+	 * @return the mapping of the pixels
+	 */
+	protected abstract WindowMapping getWindowMapping(int[][] hsbBrightnessValues);
+	
+	/**
+	 * Maps pixels with the histogram of the window centered on them.
+	 */
+	protected interface WindowMapping {
+	
+		/**
+		 * Maps a pixel with the histogram of the window centered on it.
+		 * @param histogram the window histogram, must not be modified
+		 * @param count the number of pixels in the window
+		 * @param sum the sum of the brightness values in the window
+		 * @param squares the sum of the squared brightness values in the window
+		 * @param p the brightness value of the pixel
+		 * @return the transformed brightness value of the pixel
+		 */
+		public int map(int[] histogram, int count, long sum, long squares, int p);
+		
+	}
+	
+	public int getParameter(String parameterName) {
+		if (parameterName.equals("windowSize")) return windowSize;
+		return super.getParameter(parameterName);
+	}
+	
+	public int[] getParameterRange(String parameterName) {
+		if (parameterName.equals("windowSize")) return new int[] {15, 255};
+		return super.getParameterRange(parameterName);
+	}
+	
+	public void setParameter(String parameterName, int value) {
+		if (parameterName.equals("windowSize")) windowSize = value;
+		else super.setParameter(parameterName, value);
+	}
+	
+	// the width and height of the window in pixels
+	protected int windowSize;
+	
+}
@@ -1,6 +1,13 @@
 package transformations;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 import utils.Utilities;
 
@@ -14,7 +21,7 @@ public abstract class ATransformation implements ITransformation {
 	/**
 	 * Abstract class instantiation.
 	 * @param hsbImage the original image in hsb format
-	 * @param imageLabel the image label to modify for displaying the transformed image
+	 * @param imageLabel the image label to modify for displaying the transformed image, null if headless
 	 */
 	public ATransformation(float[][][] hsbImage, JLabel imageLabel) {
 		this.hsbImage = hsbImage;
@@ -27,6 +34,165 @@ public abstract class ATransformation implements ITransformation {
 	public void newImage(float[][][] hsbImage) {
 		this.hsbImage = hsbImage;
 		this.hsbBrightnessValues = Utilities.hsbBrightnessExtractor(this.hsbImage, hsbBrightnessMaxIntValue);
+		this.fingerprint = null;
+		this.preview = null;
+	}
+	
+	public void transform() {
+		transform(false);
+	}
+	
+	public void transform(boolean preview) {
+		// this request supersedes every earlier request still waiting or running
+		long generation = ++latestGeneration;
+		
+		// a cached result is shown immediately
+		String key = getCacheKey();
+		BufferedImage cachedImage = ResultCache.get(key);
+		if (cachedImage != null) {
+			imageLabel.setIcon(new ImageIcon(cachedImage));
+			return;
+		}
+		
+		// transform in the background and set the image icon on the image label if still the latest request
+		getExecutor().execute(() -> {
+			// skip requests superseded while waiting
+			if (generation != latestGeneration) return;
+			computingGeneration = generation;
+			try {
+				BufferedImage transformedImage = preview ? createPreviewImage() : createTransformedImage(key);
+				SwingUtilities.invokeLater(() -> {
+					if (generation == latestGeneration) imageLabel.setIcon(new ImageIcon(transformedImage));
+				});
+			} catch (CancellationException e) {
+				// superseded by a later request
+			} catch (RuntimeException e) {
+				// a superseded request may fail when the image changed under it
+				if (generation == latestGeneration) e.printStackTrace();
+			}
+		});
+	}
+	
+	public int[][] getTransformedBrightnessValues() {
+		return getTransformedBrightnessValues(hsbBrightnessValues);
+	}
+	
+	/**
+	 * Transforms brightness values reduced in resolution, with the pixel sizes of the parameters reduced as well.
+	 * Transformations without pixel sizes transform them as any other brightness values.
+	 * @param hsbBrightnessValues the brightness values to transform, between 0 and 1000
+	 * @param reduction the reduction of the brightness values, 1 at full resolution and PREVIEW_REDUCTION for a preview
+	 * @return the transformed hsb brightness values
+	 */
+	protected int[][] getTransformedBrightnessValues(int[][] hsbBrightnessValues, int reduction) {
+		return getTransformedBrightnessValues(hsbBrightnessValues);
+	}
+	
+	public BufferedImage getTransformedImage() {
+		// reuse the result of the same transformation of the same image with the same parameters
+		String key = getCacheKey();
+		BufferedImage transformedImage = ResultCache.get(key);
+		if (transformedImage == null) transformedImage = createTransformedImage(key);
+		return transformedImage;
+	}
+	
+	/**
+	 * Transforms the image and caches the result.
+	 * @param key the cache key of the image and parameters when the transformation was requested
+	 * @return the transformed image
+	 */
+	private BufferedImage createTransformedImage(String key) {
+		BufferedImage transformedImage = Utilities.createBufferedImage(hsbImage, getTransformedBrightnessValues(), hsbBrightnessMaxIntValue, null, parallel);
+		
+		// only cache the result if the image and parameters did not change while transforming
+		if (key.equals(getCacheKey())) ResultCache.put(key, transformedImage);
+		return transformedImage;
+	}
+	
+	/**
+	 * Transforms a reduced resolution copy of the image and scales the result back to the size of the image.
+	 * The preview is not cached.
+	 * @return the transformed preview image at the size of the image
+	 */
+	private BufferedImage createPreviewImage() {
+		// the reduced image is sampled once per image, a preview sampled from an image replaced meanwhile is sampled again
+		float[][][] image = hsbImage;
+		Preview preview = this.preview;
+		if (preview == null || preview.source != image) {
+			float[][][] previewHsbImage = Utilities.reduceImage(image, PREVIEW_REDUCTION);
+			preview = new Preview(image, previewHsbImage, Utilities.hsbBrightnessExtractor(previewHsbImage, hsbBrightnessMaxIntValue));
+			this.preview = preview;
+		}
+		
+		// transform the reduced brightness values, pixel sizes of the parameters are reduced as well
+		int[][] previewNewBrightnessValues = getTransformedBrightnessValues(preview.brightnessValues, PREVIEW_REDUCTION);
+		
+		// scale back to the size of the image
+		BufferedImage previewImage = Utilities.createBufferedImage(preview.hsbImage, previewNewBrightnessValues, hsbBrightnessMaxIntValue, null, parallel);
+		return Utilities.scaleImage(previewImage, (image.length == 0) ? 0 : image[0].length, image.length);
+	}
+	
+	/**
+	 * Stops a background transformation that was superseded by a later request, called between the steps of a transformation.
+	 * @throws CancellationException if a later transformation was requested
+	 */
+	protected void checkCancelled() {
+		if (computingGeneration != latestGeneration) throw new CancellationException(this + " superseded by a later request");
+	}
+	
+	/**
+	 * Gets the background thread of this transformation, requests are transformed one at a time.
+	 * @return the executor for background transformations
+	 */
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, this + " transformation");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executor;
+	}
+	
+	/**
+	 * Gets the result cache key of the current image, transformation and parameter values.
+	 * @return the cache key
+	 */
+	protected String getCacheKey() {
+		// the fingerprint is calculated once per image
+		if (fingerprint == null) fingerprint = Utilities.fingerprint(hsbImage);
+		StringBuilder key = new StringBuilder();
+		key.append(Long.toHexString(fingerprint)).append(' ').append(this);
+		for (String parameterName : getParameterNames()) {
+			key.append(' ').append(parameterName).append('=').append(getParameter(parameterName));
+		}
+		if (fixedPoint) key.append(" fixedPoint");
+		return key.toString();
+	}
+	
+	public String[] getParameterNames() {
+		return new String[0];
+	}
+	
+	public int getParameter(String parameterName) {
+		throw new IllegalArgumentException(this + " has no parameter " + parameterName);
+	}
+	
+	public int[] getParameterRange(String parameterName) {
+		throw new IllegalArgumentException(this + " has no parameter " + parameterName);
+	}
+	
+	public void setParameter(String parameterName, int value) {
+		throw new IllegalArgumentException(this + " has no parameter " + parameterName);
+	}
+	
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+	
+	public void setFixedPoint(boolean fixedPoint) {
+		this.fixedPoint = fixedPoint;
 	}
 	
 	public JPanel getParameterPanel() {
@@ -37,8 +203,47 @@ public abstract class ATransformation implements ITransformation {
 	protected int[][] hsbBrightnessValues;
 	protected JPanel parameterPanel;
 	protected JLabel imageLabel;
+	protected boolean parallel = true;
+	protected boolean fixedPoint = false;
+	
+	// fingerprint of the image for the result cache, null until calculated
+	private Long fingerprint;
+	
+	// background transformations, the latest requested and the one running
+	private ExecutorService executor;
+	private volatile long latestGeneration;
+	private volatile long computingGeneration;
+	
+	// reduced resolution image for previews, null until sampled, replaced as a whole so the background thread never sees part of it
+	private volatile Preview preview;
+	
+	// the preview transforms every PREVIEW_REDUCTION-th pixel in each dimension
+	protected static final int PREVIEW_REDUCTION = 4;
 	
-	// hsb brightness is a float between 0 and 1 so we make it between 0 and 1000 for histogram calculations
-	protected static final int hsbBrightnessMaxIntValue = 1000;
+	// hsb brightness is a float between 0 and 1 so we make it between 0 and 1000 for histogram calculations, defined once by ITransformation
+	protected static final int hsbBrightnessMaxIntValue = HSB_BRIGHTNESS_MAX_INT_VALUE;
+	
+	/**
+	 * Reduced resolution image for previews together with the image it was sampled from.
+	 */
+	private static class Preview {
+		
+		/**
+		 * Creates a preview of an image.
+		 * @param source the image the preview was sampled from
+		 * @param hsbImage the reduced image in hsb format
+		 * @param brightnessValues the brightness values of the reduced image
+		 */
+		private Preview(float[][][] source, float[][][] hsbImage, int[][] brightnessValues) {
+			this.source = source;
+			this.hsbImage = hsbImage;
+			this.brightnessValues = brightnessValues;
+		}
+
+		private final float[][][] source;
+		private final float[][][] hsbImage;
+		private final int[][] brightnessValues;
+		
+	}
 	
 }
@@ -0,0 +1,123 @@
+package transformations;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Bilinear interpolation of the block mapping functions (Step 5).
+ * In parallel, the image is split into stripes of pixel columns that are interpolated concurrently.
+ * Each stripe only reads the shared inputs and writes its own rows of the result, so the output is identical to the serial result.
+ * The neighboring blocks and weights of each pixel are looked up in the interpolation tables of the grid, and each column is
+ * interpolated by the selected Kernels.
+ * In fixed point, the weights are Q16 integers and only integer arithmetic is used. Rounding a weight to Q16 changes it by at most 2^-17,
+ * so for mapping values up to 1000 the interpolated value changes by less than 2 * 1000 * 2^-17 < 0.016 before truncation: a transformed
+ * brightness value differs from double precision by at most 1, and only when the exact value is within 0.016 of an integer.
+ * @author JLepere2
+ * @date 05/12/2018
+ */
+public class BilinearInterpolation {
+
+	/**
+	 * Calculates the transformed brightness values by interpolating the mapping functions of the neighboring blocks.
+	 * @param hsbBrightnessValues the original brightness values
+	 * @param mappingsPerBlock the mapping function of each block indexed by block column, block row and brightness
+	 * @param grid the block grid of the image
+	 * @param parallel true to interpolate the stripes concurrently
+	 * @param fixedPoint true to interpolate with fixed point weights instead of double precision
+	 * @return the transformed brightness values
+	 */
+	public static int[][] interpolate(int[][] hsbBrightnessValues, int[][][] mappingsPerBlock, BlockGrid grid, boolean parallel, boolean fixedPoint) {
+		return interpolate(hsbBrightnessValues, mappingsPerBlock, grid, parallel, fixedPoint, new int[grid.numPixelsCol][grid.numPixelsRow]);
+	}
+	
+	/**
+	 * Calculates the transformed brightness values into existing arrays, e.g. to reuse them for every frame of a sequence.
+	 * @param hsbBrightnessValues the original brightness values
+	 * @param mappingsPerBlock the mapping function of each block indexed by block column, block row and brightness
+	 * @param grid the block grid of the image
+	 * @param parallel true to interpolate the stripes concurrently
+	 * @param fixedPoint true to interpolate with fixed point weights instead of double precision
+	 * @param hsbNewBrightnessValues the transformed brightness values to set, of the size of the image
+	 * @return the transformed brightness values
+	 */
+	public static int[][] interpolate(int[][] hsbBrightnessValues, int[][][] mappingsPerBlock, BlockGrid grid, boolean parallel, boolean fixedPoint, int[][] hsbNewBrightnessValues) {
+		return interpolateStrip(hsbBrightnessValues, 0, mappingsPerBlock, grid, parallel, fixedPoint, hsbNewBrightnessValues);
+	}
+	
+	/**
+	 * Calculates the transformed brightness values of a strip of consecutive pixel columns of the image, e.g. of an image streamed in strips.
+	 * @param hsbBrightnessValues the original brightness values of the strip
+	 * @param startC the pixel column of the image of the first column of the strip
+	 * @param mappingsPerBlock the mapping function of each block indexed by block column, block row and brightness
+	 * @param grid the block grid of the image
+	 * @param parallel true to interpolate the stripes concurrently
+	 * @param fixedPoint true to interpolate with fixed point weights instead of double precision
+	 * @param hsbNewBrightnessValues the transformed brightness values of the strip to set
+	 * @return the transformed brightness values of the strip
+	 */
+	public static int[][] interpolateStrip(int[][] hsbBrightnessValues, int startC, int[][][] mappingsPerBlock, BlockGrid grid, boolean parallel, boolean fixedPoint, int[][] hsbNewBrightnessValues) {
+		
+		// stripes of pixel columns
+		int numPixelsCol = hsbBrightnessValues.length;
+		int stripes = parallel ? Math.max(1, Math.min(numPixelsCol, TASKS_PER_THREAD * ForkJoinPool.getCommonPoolParallelism())) : 1;
+		
+		// set the new image stripe by stripe
+		IntStream stripeIndices = IntStream.range(0, stripes);
+		if (parallel) stripeIndices = stripeIndices.parallel();
+		stripeIndices.forEach(stripe -> {
+			int stripeStartC = startC + (int) (((long) stripe * numPixelsCol) / stripes);
+			int stripeEndC = startC + (int) (((long) (stripe + 1) * numPixelsCol) / stripes);
+			interpolate(hsbBrightnessValues, startC, mappingsPerBlock, grid, fixedPoint, hsbNewBrightnessValues, stripeStartC, stripeEndC);
+		});
+		
+		return hsbNewBrightnessValues;
+		
+	}
+	
+	/**
+	 * Interpolates a stripe of pixel columns.
+	 * @param hsbBrightnessValues the original brightness values
+	 * @param firstC the pixel column of the image of the first brightness values
+	 * @param mappingsPerBlock the mapping function of each block
+	 * @param grid the block grid of the image
+	 * @param fixedPoint true to interpolate with fixed point weights
+	 * @param hsbNewBrightnessValues the transformed brightness values to set, from the same first pixel column
+	 * @param startC the first pixel column of the image of the stripe
+	 * @param endC the pixel column of the image after the stripe
+	 */
+	private static void interpolate(int[][] hsbBrightnessValues, int firstC, int[][][] mappingsPerBlock, BlockGrid grid, boolean fixedPoint, int[][] hsbNewBrightnessValues, int startC, int endC) {
+		
+		// neighboring blocks and weights of each pixel column and row
+		InterpolationTable cols = grid.interpolationCol;
+		InterpolationTable rows = grid.interpolationRow;
+		int[] br1 = rows.block1;
+		int[] br2 = rows.block2;
+		double[] n = rows.weight1;
+		double[] nComplement = rows.weight2;
+		Kernels kernels = Kernels.getKernels();
+		
+		for (int c = startC; c < endC; c ++) {
+			// the original and transformed pixel values of this column
+			int[] pixels = hsbBrightnessValues[c - firstC];
+			int[] newPixels = hsbNewBrightnessValues[c - firstC];
+			
+			// mapping functions of the neighboring block columns and the m weights
+			int[][] mappings1 = mappingsPerBlock[cols.block1[c]];
+			int[][] mappings2 = mappingsPerBlock[cols.block2[c]];
+			double m = cols.weight1[c];
+			double mComplement = cols.weight2[c];
+			
+			// interpolate the column, vectorized when available
+			if (fixedPoint) {
+				kernels.interpolateFixedPoint(pixels, mappings1, mappings2, br1, br2, rows.fixedWeight1, rows.fixedWeight2, cols.fixedWeight1[c], cols.fixedWeight2[c], newPixels);
+			} else {
+				kernels.interpolate(pixels, mappings1, mappings2, br1, br2, n, nComplement, m, mComplement, newPixels);
+			}
+		}
+		
+	}
+	
+	// number of tasks per pool thread to balance the load of the stripes
+	private static final int TASKS_PER_THREAD = 4;
+	
+}
@@ -0,0 +1,227 @@
+package transformations;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Bin compression of values of a higher bit depth than the brightness values, e.g. 12 or 16 bit samples of medical or scientific images.
+ * The histograms of the block transformations keep hsbBrightnessMaxIntValue+1 bins whatever the bit depth, so their memory and the memory of
+ * the mapping functions stay bounded: each value is compressed into the bin containing it (Step 2), and its mapped value is interpolated
+ * linearly between the mapping values of its bin and the next bin (Step 5), so the transformed values keep the full precision of the input
+ * instead of the precision of the bins. Values already at the precision of the bins are mapped exactly as by BilinearInterpolation.
+ * In fixed point, the position of each value between the bins, the mapping between the bins and the weights between the blocks are all
+ * Q16 integers, and the transformed values differ from double precision by at most 1.
+ * @author JLepere2
+ * @date 05/17/2018
+ */
+public class BinCompression {
+
+	/**
+	 * Creates the compression of values into bins.
+	 * @param maxValue the maximum value of the input, e.g. 4095 for 12 bit or 65535 for 16 bit samples
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value of the histograms, the last bin
+	 */
+	public BinCompression(int maxValue, int hsbBrightnessMaxIntValue) {
+		if (maxValue < 1) throw new IllegalArgumentException("Maximum value must be positive");
+		this.maxValue = maxValue;
+		this.hsbBrightnessMaxIntValue = hsbBrightnessMaxIntValue;
+		binsPerValue = ((double) hsbBrightnessMaxIntValue) / maxValue;
+		valuesPerBin = ((double) maxValue) / hsbBrightnessMaxIntValue;
+		fixedBinsPerValue = Math.round(binsPerValue * (1L << (2 * InterpolationTable.FIXED_POINT_BITS)));
+		fixedValuesPerBin = Math.round(valuesPerBin * InterpolationTable.FIXED_POINT_ONE);
+	}
+	
+	/**
+	 * Compresses values into the bins of the histograms.
+	 * @param values the values, from 0 to the maximum value
+	 * @param bins the bins to set, of the size of the values
+	 * @return the bins of the values
+	 */
+	public int[][] compress(int[][] values, int[][] bins) {
+		for (int c = 0; c < values.length; c ++) {
+			int[] pixels = values[c];
+			int[] binPixels = bins[c];
+			for (int r = 0; r < pixels.length; r ++) {
+				binPixels[r] = (int) (pixels[r] * binsPerValue);
+			}
+		}
+		return bins;
+	}
+	
+	/**
+	 * Calculates the transformed values of a strip of consecutive pixel columns by interpolating the mapping functions
+	 * between the bins of each value and between the neighboring blocks.
+	 * @param values the original values of the strip
+	 * @param startC the pixel column of the image of the first column of the strip
+	 * @param mappingsPerBlock the mapping function of each block indexed by block column, block row and bin
+	 * @param grid the block grid of the image
+	 * @param parallel true to interpolate stripes of the strip concurrently
+	 * @param fixedPoint true to interpolate with fixed point positions and weights instead of double precision
+	 * @param newValues the transformed values of the strip to set, from 0 to the maximum value
+	 * @return the transformed values of the strip
+	 */
+	public int[][] interpolateStrip(int[][] values, int startC, int[][][] mappingsPerBlock, BlockGrid grid, boolean parallel, boolean fixedPoint, int[][] newValues) {
+		
+		// stripes of pixel columns
+		int numPixelsCol = values.length;
+		int stripes = parallel ? Math.max(1, Math.min(numPixelsCol, TASKS_PER_THREAD * ForkJoinPool.getCommonPoolParallelism())) : 1;
+		
+		// set the new values stripe by stripe
+		IntStream stripeIndices = IntStream.range(0, stripes);
+		if (parallel) stripeIndices = stripeIndices.parallel();
+		stripeIndices.forEach(stripe -> {
+			int stripeStartC = startC + (int) (((long) stripe * numPixelsCol) / stripes);
+			int stripeEndC = startC + (int) (((long) (stripe + 1) * numPixelsCol) / stripes);
+			if (fixedPoint) interpolateFixedPoint(values, startC, mappingsPerBlock, grid, newValues, stripeStartC, stripeEndC);
+			else interpolate(values, startC, mappingsPerBlock, grid, newValues, stripeStartC, stripeEndC);
+		});
+		
+		return newValues;
+		
+	}
+	
+	/**
+	 * Interpolates a stripe of pixel columns.
+	 * @param values the original values
+	 * @param firstC the pixel column of the image of the first values
+	 * @param mappingsPerBlock the mapping function of each block
+	 * @param grid the block grid of the image
+	 * @param newValues the transformed values to set, from the same first pixel column
+	 * @param startC the first pixel column of the image of the stripe
+	 * @param endC the pixel column of the image after the stripe
+	 */
+	private void interpolate(int[][] values, int firstC, int[][][] mappingsPerBlock, BlockGrid grid, int[][] newValues, int startC, int endC) {
+		
+		// neighboring blocks and weights of each pixel column and row
+		InterpolationTable cols = grid.interpolationCol;
+		InterpolationTable rows = grid.interpolationRow;
+		int[] br1 = rows.block1;
+		int[] br2 = rows.block2;
+		double[] n = rows.weight1;
+		double[] nComplement = rows.weight2;
+		
+		for (int c = startC; c < endC; c ++) {
+			// the original and transformed values of this column
+			int[] pixels = values[c - firstC];
+			int[] newPixels = newValues[c - firstC];
+			
+			// mapping functions of the neighboring block columns and the m weights
+			int[][] mappings1 = mappingsPerBlock[cols.block1[c]];
+			int[][] mappings2 = mappingsPerBlock[cols.block2[c]];
+			double m = cols.weight1[c];
+			double mComplement = cols.weight2[c];
+			
+			for (int r = 0; r < pixels.length; r ++) {
+				// the bin of the value, the next bin and the position of the value between them
+				double position = pixels[r] * binsPerValue;
+				int bin = (int) position;
+				int nextBin = Math.min(bin + 1, hsbBrightnessMaxIntValue);
+				double fraction = position - bin;
+				
+				// histogram equalization function mapping values, interpolated between the bins
+				double Ta = mapping(mappings1[br1[r]], bin, nextBin, fraction);
+				double Tb = mapping(mappings1[br2[r]], bin, nextBin, fraction);
+				double Tc = mapping(mappings2[br1[r]], bin, nextBin, fraction);
+				double Td = mapping(mappings2[br2[r]], bin, nextBin, fraction);
+				
+				// calculate and set transformed value, scaled back from the bins to the values
+				newPixels[r] = (int) ((m * (n[r] * Ta + nComplement[r] * Tb) + mComplement * (n[r] * Tc + nComplement[r] * Td)) * valuesPerBin);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Interpolates a stripe of pixel columns in fixed point.
+	 * @param values the original values
+	 * @param firstC the pixel column of the image of the first values
+	 * @param mappingsPerBlock the mapping function of each block
+	 * @param grid the block grid of the image
+	 * @param newValues the transformed values to set, from the same first pixel column
+	 * @param startC the first pixel column of the image of the stripe
+	 * @param endC the pixel column of the image after the stripe
+	 */
+	private void interpolateFixedPoint(int[][] values, int firstC, int[][][] mappingsPerBlock, BlockGrid grid, int[][] newValues, int startC, int endC) {
+		
+		// neighboring blocks and Q16 weights of each pixel column and row
+		InterpolationTable cols = grid.interpolationCol;
+		InterpolationTable rows = grid.interpolationRow;
+		int[] br1 = rows.block1;
+		int[] br2 = rows.block2;
+		int[] n = rows.fixedWeight1;
+		int[] nComplement = rows.fixedWeight2;
+		int bits = InterpolationTable.FIXED_POINT_BITS;
+		int fractionMask = InterpolationTable.FIXED_POINT_ONE - 1;
+		
+		for (int c = startC; c < endC; c ++) {
+			// the original and transformed values of this column
+			int[] pixels = values[c - firstC];
+			int[] newPixels = newValues[c - firstC];
+			
+			// mapping functions of the neighboring block columns and the m weights
+			int[][] mappings1 = mappingsPerBlock[cols.block1[c]];
+			int[][] mappings2 = mappingsPerBlock[cols.block2[c]];
+			long m = cols.fixedWeight1[c];
+			long mComplement = cols.fixedWeight2[c];
+			
+			for (int r = 0; r < pixels.length; r ++) {
+				// the bin of the value, the next bin and the Q16 position of the value between them
+				long position = (pixels[r] * fixedBinsPerValue) >> bits;
+				int bin = (int) (position >> bits);
+				int nextBin = Math.min(bin + 1, hsbBrightnessMaxIntValue);
+				int fraction = (int) position & fractionMask;
+				
+				// Q16 histogram equalization function mapping values, interpolated between the bins
+				long Ta = mappingFixedPoint(mappings1[br1[r]], bin, nextBin, fraction);
+				long Tb = mappingFixedPoint(mappings1[br2[r]], bin, nextBin, fraction);
+				long Tc = mappingFixedPoint(mappings2[br1[r]], bin, nextBin, fraction);
+				long Td = mappingFixedPoint(mappings2[br2[r]], bin, nextBin, fraction);
+				
+				// Q48 interpolation between the blocks, back to Q16 bins, scaled to the values
+				long interpolated = m * (n[r] * Ta + nComplement[r] * Tb) + mComplement * (n[r] * Tc + nComplement[r] * Td);
+				newPixels[r] = (int) (((interpolated >> (2 * bits)) * fixedValuesPerBin) >> (2 * bits));
+			}
+		}
+		
+	}
+	
+	/**
+	 * Interpolates a mapping function between two bins in fixed point.
+	 * @param mapping the mapping function
+	 * @param bin the bin of the value
+	 * @param nextBin the next bin
+	 * @param fraction the Q16 position of the value from the bin to the next bin
+	 * @return the Q16 mapped value in bins
+	 */
+	private static long mappingFixedPoint(int[] mapping, int bin, int nextBin, int fraction) {
+		return (((long) mapping[bin]) << InterpolationTable.FIXED_POINT_BITS) + ((long) fraction) * (mapping[nextBin] - mapping[bin]);
+	}
+	
+	/**
+	 * Interpolates a mapping function between two bins.
+	 * @param mapping the mapping function
+	 * @param bin the bin of the value
+	 * @param nextBin the next bin
+	 * @param fraction the position of the value from the bin to the next bin
+	 * @return the mapped value in bins
+	 */
+	private static double mapping(int[] mapping, int bin, int nextBin, double fraction) {
+		return mapping[bin] + fraction * (mapping[nextBin] - mapping[bin]);
+	}
+	
+	// the maximum value of the input
+	public final int maxValue;
+	
+	// the last bin, and the scales between values and bins
+	private final int hsbBrightnessMaxIntValue;
+	private final double binsPerValue;
+	private final double valuesPerBin;
+	
+	// the same scales in fixed point, Q32 bins per value and Q16 values per bin
+	private final long fixedBinsPerValue;
+	private final long fixedValuesPerBin;
+	
+	// number of tasks per pool thread to balance the load of the stripes
+	private static final int TASKS_PER_THREAD = 4;
+	
+}
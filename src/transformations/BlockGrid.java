@@ -0,0 +1,210 @@
+package transformations;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decomposition of an image into a grid of blocks. The image does not need to be divisible by the number of blocks,
+ * the pixels are distributed so that block sizes differ by at most one pixel.
+ * Following the transformations, "col" refers to the first index of the image matrix and "row" to the second.
+ * Grids are immutable, so {@link #getGrid} shares the grid and its interpolation tables between transformations and images of the same size.
+ * @author JLepere2
+ * @date 05/11/2018
+ */
+public class BlockGrid {
+
+	/**
+	 * Creates the block grid for an image.
+	 * @param numPixelsCol the number of pixels in the first dimension of the image
+	 * @param numPixelsRow the number of pixels in the second dimension of the image
+	 * @param numBlocksCol the number of blocks in the first dimension, limited to the number of pixels
+	 * @param numBlocksRow the number of blocks in the second dimension, limited to the number of pixels
+	 */
+	public BlockGrid(int numPixelsCol, int numPixelsRow, int numBlocksCol, int numBlocksRow) {
+		this.numPixelsCol = numPixelsCol;
+		this.numPixelsRow = numPixelsRow;
+		this.numBlocksCol = Math.max(1, Math.min(numBlocksCol, numPixelsCol));
+		this.numBlocksRow = Math.max(1, Math.min(numBlocksRow, numPixelsRow));
+		
+		// block boundaries and centers
+		blockStartCol = boundaries(numPixelsCol, this.numBlocksCol);
+		blockStartRow = boundaries(numPixelsRow, this.numBlocksRow);
+		blockCenterCol = centers(blockStartCol);
+		blockCenterRow = centers(blockStartRow);
+		
+		// block coordinates for each pixel
+		blockOfCol = blockIndices(blockStartCol);
+		blockOfRow = blockIndices(blockStartRow);
+		
+		// neighboring blocks and weights for bilinear interpolation
+		interpolationCol = new InterpolationTable(blockOfCol, blockCenterCol);
+		interpolationRow = new InterpolationTable(blockOfRow, blockCenterRow);
+	}
+	
+	/**
+	 * Gets the block grid for an image, reusing a recently created grid of the same geometry.
+	 * @param numPixelsCol the number of pixels in the first dimension of the image
+	 * @param numPixelsRow the number of pixels in the second dimension of the image
+	 * @param numBlocksCol the number of blocks in the first dimension
+	 * @param numBlocksRow the number of blocks in the second dimension
+	 * @return the block grid
+	 */
+	public static BlockGrid getGrid(int numPixelsCol, int numPixelsRow, int numBlocksCol, int numBlocksRow) {
+		String key = numPixelsCol + "x" + numPixelsRow + "/" + numBlocksCol + "x" + numBlocksRow;
+		synchronized (recentGrids) {
+			BlockGrid grid = recentGrids.get(key);
+			if (grid == null) {
+				grid = new BlockGrid(numPixelsCol, numPixelsRow, numBlocksCol, numBlocksRow);
+				recentGrids.put(key, grid);
+			}
+			return grid;
+		}
+	}
+	
+	/**
+	 * Gets the first pixel of a block in the first dimension.
+	 * @param blockC the block column
+	 * @return the first pixel column of the block
+	 */
+	public int blockStartCol(int blockC) {
+		return blockStartCol[blockC];
+	}
+	
+	/**
+	 * Gets the first pixel of a block in the second dimension.
+	 * @param blockR the block row
+	 * @return the first pixel row of the block
+	 */
+	public int blockStartRow(int blockR) {
+		return blockStartRow[blockR];
+	}
+	
+	/**
+	 * Gets the number of pixels of a block in the first dimension.
+	 * @param blockC the block column
+	 * @return the number of pixel columns in the block
+	 */
+	public int pixelsPerBlockCol(int blockC) {
+		return blockStartCol[blockC + 1] - blockStartCol[blockC];
+	}
+	
+	/**
+	 * Gets the number of pixels of a block in the second dimension.
+	 * @param blockR the block row
+	 * @return the number of pixel rows in the block
+	 */
+	public int pixelsPerBlockRow(int blockR) {
+		return blockStartRow[blockR + 1] - blockStartRow[blockR];
+	}
+	
+	/**
+	 * Gets the number of pixels in a block.
+	 * @param blockC the block column
+	 * @param blockR the block row
+	 * @return the number of pixels in the block
+	 */
+	public int pixelsPerBlock(int blockC, int blockR) {
+		return pixelsPerBlockCol(blockC) * pixelsPerBlockRow(blockR);
+	}
+	
+	/**
+	 * Gets the SPATIAL coordinate of the center of a block in the first dimension.
+	 * @param blockC the block column
+	 * @return the center pixel column of the block
+	 */
+	public int blockCenterCol(int blockC) {
+		return blockCenterCol[blockC];
+	}
+	
+	/**
+	 * Gets the SPATIAL coordinate of the center of a block in the second dimension.
+	 * @param blockR the block row
+	 * @return the center pixel row of the block
+	 */
+	public int blockCenterRow(int blockR) {
+		return blockCenterRow[blockR];
+	}
+	
+	/**
+	 * Gets the block column of a pixel.
+	 * @param c the pixel column
+	 * @return the block column containing the pixel
+	 */
+	public int blockOfCol(int c) {
+		return blockOfCol[c];
+	}
+	
+	/**
+	 * Gets the block row of a pixel.
+	 * @param r the pixel row
+	 * @return the block row containing the pixel
+	 */
+	public int blockOfRow(int r) {
+		return blockOfRow[r];
+	}
+	
+	/**
+	 * Calculates the first pixel of each block, with the number of pixels as the last boundary.
+	 * @param numPixels the number of pixels
+	 * @param numBlocks the number of blocks
+	 * @return the boundaries of the blocks
+	 */
+	private static int[] boundaries(int numPixels, int numBlocks) {
+		int[] starts = new int[numBlocks + 1];
+		for (int block = 0; block <= numBlocks; block ++) {
+			starts[block] = (int) (((long) block * numPixels) / numBlocks);
+		}
+		return starts;
+	}
+	
+	/**
+	 * Calculates the center of each block.
+	 * @param starts the boundaries of the blocks
+	 * @return the center of each block
+	 */
+	private static int[] centers(int[] starts) {
+		int[] centers = new int[starts.length - 1];
+		for (int block = 0; block < centers.length; block ++) {
+			centers[block] = starts[block] + (starts[block + 1] - starts[block]) / 2;
+		}
+		return centers;
+	}
+	
+	/**
+	 * Calculates the block index of each pixel.
+	 * @param starts the boundaries of the blocks
+	 * @return the block index of each pixel
+	 */
+	private static int[] blockIndices(int[] starts) {
+		int[] indices = new int[starts[starts.length - 1]];
+		for (int block = 0; block < starts.length - 1; block ++) {
+			for (int pixel = starts[block]; pixel < starts[block + 1]; pixel ++) {
+				indices[pixel] = block;
+			}
+		}
+		return indices;
+	}
+	
+	public final int numPixelsCol;
+	public final int numPixelsRow;
+	public final int numBlocksCol;
+	public final int numBlocksRow;
+	private final int[] blockStartCol;
+	private final int[] blockStartRow;
+	private final int[] blockCenterCol;
+	private final int[] blockCenterRow;
+	private final int[] blockOfCol;
+	private final int[] blockOfRow;
+	public final InterpolationTable interpolationCol;
+	public final InterpolationTable interpolationRow;
+	
+	// recently used grids in access order, the least recently used is removed beyond the limit
+	private static final int MAX_RECENT_GRIDS = 16;
+	private static final Map<String, BlockGrid> recentGrids = new LinkedHashMap<String, BlockGrid>(MAX_RECENT_GRIDS, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, BlockGrid> eldest) {
+			return size() > MAX_RECENT_GRIDS;
+		}
+		private static final long serialVersionUID = 1L;
+	};
+	
+}
@@ -0,0 +1,386 @@
+package transformations;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Histogram, minimum, maximum, average and standard deviation of each block of an image (Step 2).
+ * The blocks are read directly from the brightness values through the block grid, the image is never copied.
+ * In parallel, the blocks are computed concurrently on the fork/join pool. When there are fewer blocks than
+ * the pool can keep busy, each block is additionally split into stripes of pixel columns whose partial results
+ * are merged afterwards, so the serial and parallel results are identical.
+ * The statistics can also be accumulated strip by strip of pixel columns, for images that are streamed instead of held in memory.
+ * @author JLepere2
+ * @date 05/12/2018
+ */
+public class BlockStatistics {
+
+	/**
+	 * Calculates the statistics for each block.
+	 * @param hsbBrightnessValues the brightness values of the image
+	 * @param grid the block grid of the image
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value of the histograms
+	 * @param withDeviation true to also calculate the average and standard deviation of each block
+	 * @param parallel true to calculate the blocks concurrently
+	 */
+	public BlockStatistics(int[][] hsbBrightnessValues, BlockGrid grid, int hsbBrightnessMaxIntValue, boolean withDeviation, boolean parallel) {
+		this.grid = grid;
+		sumPerBlock = null;
+		squaresPerBlock = null;
+		int numBlocksCol = grid.numBlocksCol;
+		int numBlocksRow = grid.numBlocksRow;
+		int numBlocks = numBlocksCol * numBlocksRow;
+
+		// Initializes an array for holding the histogram of EACH block
+		histogramsPerBlock = new int[numBlocksCol][numBlocksRow][hsbBrightnessMaxIntValue+1];
+
+		// Initialize an array for holding the minimum, maximum, and average value of each block, for future use
+		minPerBlock = new int[numBlocksCol][numBlocksRow];
+		maxPerBlock = new int[numBlocksCol][numBlocksRow];
+		avgPerBlock = new int[numBlocksCol][numBlocksRow];
+		stdPerBlock = new double[numBlocksCol][numBlocksRow];
+
+		// split blocks into stripes when there are too few blocks to keep the pool busy
+		int stripesPerBlock = 1;
+		if (parallel && numBlocks < TASKS_PER_THREAD * ForkJoinPool.getCommonPoolParallelism()) {
+			int minPixelsPerBlockCol = grid.numPixelsCol / numBlocksCol;
+			stripesPerBlock = Math.max(1, Math.min(minPixelsPerBlockCol, (TASKS_PER_THREAD * ForkJoinPool.getCommonPoolParallelism() + numBlocks - 1) / numBlocks));
+		}
+		int stripes = stripesPerBlock;
+
+		// partial results per stripe, the block results are used directly without striping
+		int[][] partialHistograms = new int[numBlocks * stripes][];
+		int[] partialMin = new int[numBlocks * stripes];
+		int[] partialMax = new int[numBlocks * stripes];
+		long[] partialSum = new long[numBlocks * stripes];
+		long[] partialSquares = new long[numBlocks * stripes];
+
+		// set the histogram for each block stripe
+		IntStream units = IntStream.range(0, numBlocks * stripes);
+		if (parallel) units = units.parallel();
+		units.forEach(unit -> {
+			int blockC = (unit / stripes) / numBlocksRow;
+			int blockR = (unit / stripes) % numBlocksRow;
+			int stripe = unit % stripes;
+
+			// pixels of this stripe of the block
+			int pixelsPerBlockCol = grid.pixelsPerBlockCol(blockC);
+			int startC = grid.blockStartCol(blockC) + stripeStart(pixelsPerBlockCol, stripe, stripes);
+			int endC = grid.blockStartCol(blockC) + stripeStart(pixelsPerBlockCol, stripe + 1, stripes);
+			int startR = grid.blockStartRow(blockR);
+			int endR = startR + grid.pixelsPerBlockRow(blockR);
+
+			// histogram to fill for this stripe
+			int[] histogram = (stripes == 1) ? histogramsPerBlock[blockC][blockR] : new int[hsbBrightnessMaxIntValue+1];
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			long sum = 0;
+			long squares = 0;
+
+			for (int c = startC; c < endC; c ++) {
+				int[] pixels = hsbBrightnessValues[c];
+				for (int r = startR; r < endR; r ++) {
+					// get the brightness value
+					int brightness = pixels[r];
+
+					// increment the brightness value index of the histogram for the block
+					histogram[brightness] += 1;
+
+					// update min, max and avg count values
+					if (brightness < min) min = brightness;
+					if (brightness > max) max = brightness;
+					sum += brightness;
+					squares += (long) brightness * brightness;
+				}
+			}
+
+			partialHistograms[unit] = histogram;
+			partialMin[unit] = min;
+			partialMax[unit] = max;
+			partialSum[unit] = sum;
+			partialSquares[unit] = squares;
+		});
+
+		// merge the stripes of each block
+		IntStream blocks = IntStream.range(0, numBlocks);
+		if (parallel) blocks = blocks.parallel();
+		blocks.forEach(blockIndex -> {
+			int blockC = blockIndex / numBlocksRow;
+			int blockR = blockIndex % numBlocksRow;
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			long sum = 0;
+			for (int unit = blockIndex * stripes; unit < (blockIndex + 1) * stripes; unit ++) {
+				if (stripes > 1) {
+					for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
+						histogramsPerBlock[blockC][blockR][brightness] += partialHistograms[unit][brightness];
+					}
+				}
+				min = Math.min(min, partialMin[unit]);
+				max = Math.max(max, partialMax[unit]);
+				sum += partialSum[unit];
+			}
+			minPerBlock[blockC][blockR] = min;
+			maxPerBlock[blockC][blockR] = max;
+
+			// calculate average per block
+			avgPerBlock[blockC][blockR] = (int) (sum / grid.pixelsPerBlock(blockC, blockR));
+		});
+
+		if (!withDeviation) return;
+		
+		// calculate the standard deviation for each block
+		for (int blockIndex = 0; blockIndex < numBlocks; blockIndex ++) {
+			int blockC = blockIndex / numBlocksRow;
+			int blockR = blockIndex % numBlocksRow;
+			long sum = 0;
+			long squares = 0;
+			for (int unit = blockIndex * stripes; unit < (blockIndex + 1) * stripes; unit ++) {
+				sum += partialSum[unit];
+				squares += partialSquares[unit];
+			}
+
+			// sum of squared deviations from the block average, exact in long arithmetic
+			long avg = avgPerBlock[blockC][blockR];
+			long pixels = grid.pixelsPerBlock(blockC, blockR);
+			long deviations = squares - 2 * avg * sum + pixels * avg * avg;
+
+			// divide by number of pixels in block and take sqrt
+			stdPerBlock[blockC][blockR] = Math.sqrt(((double) deviations) / pixels);
+		}
+
+	}
+
+	/**
+	 * Updates the statistics of some blocks of an image and keeps the statistics of the other blocks, e.g. of the blocks of a frame
+	 * that changed since the previous frame. The kept histograms are shared with the previous statistics, neither may be modified.
+	 * @param hsbBrightnessValues the brightness values of the image
+	 * @param previous the statistics of the other blocks, of the same block grid
+	 * @param blocks true for each block to calculate, indexed by block column and block row
+	 * @param withDeviation true to also calculate the standard deviation of the calculated blocks
+	 * @param parallel true to calculate the blocks concurrently
+	 */
+	public BlockStatistics(int[][] hsbBrightnessValues, BlockStatistics previous, boolean[][] blocks, boolean withDeviation, boolean parallel) {
+		this.grid = previous.grid;
+		sumPerBlock = null;
+		squaresPerBlock = null;
+		int numBlocksCol = grid.numBlocksCol;
+		int numBlocksRow = grid.numBlocksRow;
+		int bins = previous.histogramsPerBlock[0][0].length;
+		
+		// the statistics of the previous blocks, replaced for the calculated blocks
+		histogramsPerBlock = new int[numBlocksCol][][];
+		minPerBlock = new int[numBlocksCol][];
+		maxPerBlock = new int[numBlocksCol][];
+		avgPerBlock = new int[numBlocksCol][];
+		stdPerBlock = new double[numBlocksCol][];
+		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
+			histogramsPerBlock[blockC] = previous.histogramsPerBlock[blockC].clone();
+			minPerBlock[blockC] = previous.minPerBlock[blockC].clone();
+			maxPerBlock[blockC] = previous.maxPerBlock[blockC].clone();
+			avgPerBlock[blockC] = previous.avgPerBlock[blockC].clone();
+			stdPerBlock[blockC] = previous.stdPerBlock[blockC].clone();
+		}
+		
+		// calculate each block to update, each block is only updated by one task
+		IntStream blockIndices = IntStream.range(0, numBlocksCol * numBlocksRow).filter(blockIndex -> blocks[blockIndex / numBlocksRow][blockIndex % numBlocksRow]);
+		if (parallel) blockIndices = blockIndices.parallel();
+		blockIndices.forEach(blockIndex -> {
+			int blockC = blockIndex / numBlocksRow;
+			int blockR = blockIndex % numBlocksRow;
+			int startC = grid.blockStartCol(blockC);
+			int endC = startC + grid.pixelsPerBlockCol(blockC);
+			int startR = grid.blockStartRow(blockR);
+			int endR = startR + grid.pixelsPerBlockRow(blockR);
+			
+			// new histogram for the block
+			int[] histogram = new int[bins];
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			long sum = 0;
+			long squares = 0;
+			
+			for (int c = startC; c < endC; c ++) {
+				int[] pixels = hsbBrightnessValues[c];
+				for (int r = startR; r < endR; r ++) {
+					// get the brightness value
+					int brightness = pixels[r];
+					
+					// increment the brightness value index of the histogram for the block
+					histogram[brightness] += 1;
+					
+					// update min, max and avg count values
+					if (brightness < min) min = brightness;
+					if (brightness > max) max = brightness;
+					sum += brightness;
+					squares += (long) brightness * brightness;
+				}
+			}
+			
+			histogramsPerBlock[blockC][blockR] = histogram;
+			minPerBlock[blockC][blockR] = min;
+			maxPerBlock[blockC][blockR] = max;
+			
+			// calculate average per block
+			long pixels = grid.pixelsPerBlock(blockC, blockR);
+			long avg = sum / pixels;
+			avgPerBlock[blockC][blockR] = (int) avg;
+			if (!withDeviation) return;
+			
+			// sum of squared deviations from the block average, exact in long arithmetic
+			long deviations = squares - 2 * avg * sum + pixels * avg * avg;
+			
+			// divide by number of pixels in block and take sqrt
+			stdPerBlock[blockC][blockR] = Math.sqrt(((double) deviations) / pixels);
+		});
+	}
+	
+	/**
+	 * Creates empty statistics to accumulate with add, strip by strip of pixel columns. Once every pixel column was added and
+	 * complete was called, the statistics are identical to the statistics calculated from the whole image.
+	 * @param grid the block grid of the image
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value of the histograms
+	 * @param withDeviation true to also calculate the average and standard deviation of each block
+	 */
+	public BlockStatistics(BlockGrid grid, int hsbBrightnessMaxIntValue, boolean withDeviation) {
+		this.grid = grid;
+		int numBlocksCol = grid.numBlocksCol;
+		int numBlocksRow = grid.numBlocksRow;
+		histogramsPerBlock = new int[numBlocksCol][numBlocksRow][hsbBrightnessMaxIntValue+1];
+		minPerBlock = new int[numBlocksCol][numBlocksRow];
+		maxPerBlock = new int[numBlocksCol][numBlocksRow];
+		avgPerBlock = new int[numBlocksCol][numBlocksRow];
+		stdPerBlock = new double[numBlocksCol][numBlocksRow];
+		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
+			Arrays.fill(minPerBlock[blockC], Integer.MAX_VALUE);
+			Arrays.fill(maxPerBlock[blockC], Integer.MIN_VALUE);
+		}
+		
+		// running sums until the statistics are complete
+		sumPerBlock = new long[numBlocksCol][numBlocksRow];
+		squaresPerBlock = withDeviation ? new long[numBlocksCol][numBlocksRow] : null;
+	}
+	
+	/**
+	 * Adds a strip of pixel columns to statistics created for accumulation.
+	 * In parallel, the block rows are added concurrently, each block is only updated by one task.
+	 * @param strip the brightness values of the strip
+	 * @param startC the pixel column of the image of the first column of the strip
+	 * @param parallel true to add the block rows concurrently
+	 */
+	public void add(int[][] strip, int startC, boolean parallel) {
+		IntStream blockRows = IntStream.range(0, grid.numBlocksRow);
+		if (parallel) blockRows = blockRows.parallel();
+		blockRows.forEach(blockR -> {
+			int startR = grid.blockStartRow(blockR);
+			int endR = startR + grid.pixelsPerBlockRow(blockR);
+			for (int c = 0; c < strip.length; c ++) {
+				int blockC = grid.blockOfCol(startC + c);
+				int[] histogram = histogramsPerBlock[blockC][blockR];
+				int[] pixels = strip[c];
+				int min = Integer.MAX_VALUE;
+				int max = Integer.MIN_VALUE;
+				long sum = 0;
+				long squares = 0;
+				for (int r = startR; r < endR; r ++) {
+					// get the brightness value
+					int brightness = pixels[r];
+					
+					// increment the brightness value index of the histogram for the block
+					histogram[brightness] += 1;
+					
+					// update min, max and avg count values
+					if (brightness < min) min = brightness;
+					if (brightness > max) max = brightness;
+					sum += brightness;
+					squares += (long) brightness * brightness;
+				}
+				
+				// merge the column into the block
+				if (min < minPerBlock[blockC][blockR]) minPerBlock[blockC][blockR] = min;
+				if (max > maxPerBlock[blockC][blockR]) maxPerBlock[blockC][blockR] = max;
+				sumPerBlock[blockC][blockR] += sum;
+				if (squaresPerBlock != null) squaresPerBlock[blockC][blockR] += squares;
+			}
+		});
+	}
+	
+	/**
+	 * Calculates the average and standard deviation of each block after the last strip was added.
+	 */
+	public void complete() {
+		for (int blockC = 0; blockC < grid.numBlocksCol; blockC ++) {
+			for (int blockR = 0; blockR < grid.numBlocksRow; blockR ++) {
+				// calculate average per block
+				long sum = sumPerBlock[blockC][blockR];
+				long pixels = grid.pixelsPerBlock(blockC, blockR);
+				avgPerBlock[blockC][blockR] = (int) (sum / pixels);
+				if (squaresPerBlock == null) continue;
+				
+				// sum of squared deviations from the block average, exact in long arithmetic
+				long avg = avgPerBlock[blockC][blockR];
+				long deviations = squaresPerBlock[blockC][blockR] - 2 * avg * sum + pixels * avg * avg;
+				
+				// divide by number of pixels in block and take sqrt
+				stdPerBlock[blockC][blockR] = Math.sqrt(((double) deviations) / pixels);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the maximum brightness value of the image.
+	 * @return the maximum brightness value over all blocks
+	 */
+	public int getMax() {
+		int max = Integer.MIN_VALUE;
+		for (int[] maxPerBlockC : maxPerBlock) {
+			for (int blockMax : maxPerBlockC) {
+				if (blockMax > max) max = blockMax;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Gets the histogram of the image as the sum of the block histograms. Must be called before the block histograms are modified.
+	 * @return a new array with the histogram of the image
+	 */
+	public int[] getGlobalHistogram() {
+		int[] globalHistogram = new int[histogramsPerBlock[0][0].length];
+		for (int blockC = 0; blockC < grid.numBlocksCol; blockC ++) {
+			for (int blockR = 0; blockR < grid.numBlocksRow; blockR ++) {
+				for (int brightness = 0; brightness < globalHistogram.length; brightness ++) {
+					globalHistogram[brightness] += histogramsPerBlock[blockC][blockR][brightness];
+				}
+			}
+		}
+		return globalHistogram;
+	}
+
+	/**
+	 * Gets the first pixel column of a stripe.
+	 * @param numPixels the number of pixel columns in the block
+	 * @param stripe the stripe
+	 * @param stripes the number of stripes per block
+	 * @return the first pixel column of the stripe
+	 */
+	private static int stripeStart(int numPixels, int stripe, int stripes) {
+		return (int) (((long) stripe * numPixels) / stripes);
+	}
+
+	public final int[][][] histogramsPerBlock;
+	public final int[][] minPerBlock;
+	public final int[][] maxPerBlock;
+	public final int[][] avgPerBlock;
+	public final double[][] stdPerBlock;
+	private final BlockGrid grid;
+
+	// the sum and sum of squares of each block while accumulating strips, null otherwise
+	private final long[][] sumPerBlock;
+	private final long[][] squaresPerBlock;
+	
+	// number of tasks per pool thread to balance the load of uneven blocks
+	private static final int TASKS_PER_THREAD = 4;
+
+}
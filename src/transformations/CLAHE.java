@@ -1,22 +1,21 @@
 package transformations;
 
 import java.awt.GridLayout;
+import java.util.Arrays;
 import java.util.stream.IntStream;
 
-import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import utils.SliderPanel;
-import utils.Utilities;
 
 /**
  * Contrast Limited Adaptive Histogram Equalization transformation algorithm.
  * @author JLepere2
  * @date 05/08/2018
  */
-public class CLAHE extends ATransformation {
+public class CLAHE extends ABlockTransformation {
 
 	/**
 	 * Creates object for CLAHE transformation. 
@@ -31,6 +30,9 @@ public class CLAHE extends ATransformation {
 		alpha = 100;
 		Smax = 1;
 		
+		// the clipping threshold only depends on the minimum and maximum value of each block
+		withDeviation = false;
+		
 		// main panel initialization
 		parameterPanel.setLayout(new GridLayout(3, 1));
 		
@@ -39,7 +41,7 @@ public class CLAHE extends ATransformation {
 		blockSizePanel.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
 				blockSize = blockSizePanel.getCurrentValue();
-				transform();
+				transform(blockSizePanel.getValueIsAdjusting());
 			}
 		});
 		
@@ -48,7 +50,7 @@ public class CLAHE extends ATransformation {
 		alphaPanel.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
 				alpha = alphaPanel.getCurrentValue();
-				transform();
+				transform(alphaPanel.getValueIsAdjusting());
 			}
 		});
 		
@@ -57,7 +59,7 @@ public class CLAHE extends ATransformation {
 		SmaxPanel.addChangeListener(new ChangeListener() {
 			public void stateChanged(ChangeEvent e) {
 				Smax = SmaxPanel.getCurrentValue();
-				transform();
+				transform(SmaxPanel.getValueIsAdjusting());
 			}
 		});
 		
@@ -69,7 +71,7 @@ public class CLAHE extends ATransformation {
 	}
 
 	
-	public void transform() {
+	public int[][][] getMappingsPerBlock(BlockStatistics statistics, BlockGrid grid, int blockSize) {
 		
 		/*
 		 * 5 Steps
@@ -78,75 +80,26 @@ public class CLAHE extends ATransformation {
 		 * 3) Histogram Clipping Redistribution
 		 * 4) Histogram Equalization Function Mapping
 		 * 5) Bilinear Interpolation
+		 * Steps 1, 2 and 5 are the same for all block transformations, see ABlockTransformation
 		 */
 		
 		
-		// -- STEP 1 : Image Decomposition -- //
+		// the parameters of this request, the sliders may change the fields while transforming in the background
+		int alpha = this.alpha;
+		int Smax = this.Smax;
 		
-		// image block parameters
-		int numBlocksCol = blockSize;
-		int numBlocksRow = blockSize;
-		int pixelsPerBlockCol = Utilities.IMAGE_SIZE / numBlocksCol;
-		int pixelsPerBlockRow = Utilities.IMAGE_SIZE / numBlocksRow;
-		int pixelsPerBock = pixelsPerBlockCol * pixelsPerBlockRow;
+		// the values of this request in the order of the parameter names, recorded by the flight recorder events of the steps
+		int[] parameterValues = new int[] {blockSize, alpha, Smax};
 		
-		/*
-		 *  Creates an array for storing the cut image where index:
-		 *  0 := block column
-		 *  1 := block row
-		 *  2 := pixel column
-		 *  3 := pixel row
-		 */
-		int[][][][] cutImage = new int[numBlocksCol][numBlocksRow][pixelsPerBlockCol][pixelsPerBlockRow];
 		
-		// initialize the cut image
-		for (int c = 0; c < Utilities.IMAGE_SIZE; c ++) {
-			for (int r = 0; r < Utilities.IMAGE_SIZE; r ++) {
-				// get the index for the cut image
-				int blockCol = c / pixelsPerBlockCol;
-				int blockRow = r / pixelsPerBlockRow;
-				int pixelCol = c % pixelsPerBlockCol;
-				int pixelRow = r % pixelsPerBlockRow;
-				
-				// set the cut image pixel
-				cutImage[blockCol][blockRow][pixelCol][pixelRow] = hsbBrightnessValues[c][r];
-			}
-		}
+		// image block parameters of the grid from Step 1
+		int numBlocksCol = grid.numBlocksCol;
+		int numBlocksRow = grid.numBlocksRow;
 		
 		
-		// -- STEP 2 : Histogram Calculations -- //
-		
-		// Initializes an array for holding the histogram of EACH block 
-		int[][][] histogramsPerBlock = new int[numBlocksCol][numBlocksRow][hsbBrightnessMaxIntValue+1];
-		
-		// Initialize an array for holding the minimum and maximum value of each block, for future use
-		int[][] minPerBlock = new int[numBlocksCol][numBlocksRow];
-		int[][] maxPerBlock = new int[numBlocksCol][numBlocksRow];
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				minPerBlock[blockC][blockR] = Integer.MAX_VALUE;
-				maxPerBlock[blockC][blockR] = Integer.MIN_VALUE;
-			}
-		}
-		
-		// set the histogram for each block
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				for (int pixelC = 0; pixelC < pixelsPerBlockCol; pixelC ++) {
-					for (int pixelR = 0; pixelR < pixelsPerBlockRow; pixelR ++) {
-						// get the brightness value
-						int brightness = cutImage[blockC][blockR][pixelC][pixelR];
-						
-						// increment the brightness value index of the histogram for the block
-						histogramsPerBlock[blockC][blockR][brightness] += 1;
-						
-						// update min and max values per block
-						if (brightness < minPerBlock[blockC][blockR]) minPerBlock[blockC][blockR] = brightness;
-						if (brightness > maxPerBlock[blockC][blockR]) maxPerBlock[blockC][blockR] = brightness;
-					}
-				}
-			}
-		}
+		// the minimum and maximum value of each block from Step 2
+		int[][] minPerBlock = statistics.minPerBlock;
+		int[][] maxPerBlock = statistics.maxPerBlock;
 		
 		
 		// -- STEP 3 : Histogram Clipping Redistribution -- //
@@ -157,145 +110,129 @@ public class CLAHE extends ATransformation {
 		    N = dynamic range of the block
 		    α & Smax are passed parameters
 		 */
-		double M = pixelsPerBlockCol * pixelsPerBlockRow;
-		
-		// redistribute the histogram
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				// calculate the clipping point for this block
-				double N = maxPerBlock[blockC][blockR] - minPerBlock[blockC][blockR];
-				int B = (int) ((M/N)*(1.0+(alpha/100.0)*Smax));
-				
-				// store the total clipped for redistribution
-				int totalClipped = 0;
-				
-				// clip the histogram
-				for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
-					// get the count for this brightness value and block
-					int brightnessCount = histogramsPerBlock[blockC][blockR][brightness];
-					if (brightnessCount > B) {
-						// add amount clipped
-						totalClipped += brightnessCount - B;
-						// clip
-						histogramsPerBlock[blockC][blockR][brightness] = B;
-					}
-				}
-				
-				// redistribute amount for each brightness
-				int redistributionPerBrightness = totalClipped / (hsbBrightnessMaxIntValue+1);
-				
-				// redistribute
-				for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
-					histogramsPerBlock[blockC][blockR][brightness] += redistributionPerBrightness;
+		 
+		// flight recorder event of each step, committed when the step is done
+		StageEvent event = StageEvent.begin(this, "clipping", grid, blockSize, parameterValues);
+		
+		// the clipped histograms, only recalculated when the block statistics, alpha or Smax change
+		int[][][] clippedHistogramsPerBlock = clippingStage.get(Arrays.asList(statistics, alpha, Smax), () -> {
+			
+			// copy of the block histograms to clip in place
+			int[][][] histogramsPerBlock = Stage.copy(statistics.histogramsPerBlock);
+			
+			// the clipping and redistribution kernels, vectorized when available
+			Kernels kernels = Kernels.getKernels();
+			
+			// redistribute the histogram
+			for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
+				for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
+					double M = grid.pixelsPerBlock(blockC, blockR);
+					
+					// calculate the clipping point for this block
+					double N = maxPerBlock[blockC][blockR] - minPerBlock[blockC][blockR];
+					int B = (int) ((M/N)*(1.0+(alpha/100.0)*Smax));
+					
+					// clip the histogram and store the total clipped for redistribution
+					int totalClipped = kernels.clip(histogramsPerBlock[blockC][blockR], 0, hsbBrightnessMaxIntValue+1, B);
+					
+					// redistribute amount for each brightness
+					int redistributionPerBrightness = totalClipped / (hsbBrightnessMaxIntValue+1);
+					
+					// redistribute
+					kernels.redistribute(histogramsPerBlock[blockC][blockR], redistributionPerBrightness);
 				}
 			}
-		}
+			
+			return histogramsPerBlock;
+		});
+		event.commit();
+		
+		checkCancelled();
 		
 		
 		// STEP 4 - Histogram Equalization Function Mapping -- //
 		
-		// Calculate mapped value for each brightness value per block w/ histogram equalization
-		for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
-			for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
-				// calculate running histogram
-				for (int brightness = 1; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
-					histogramsPerBlock[blockC][blockR][brightness] += histogramsPerBlock[blockC][blockR][brightness-1];
-				}
-				
-				// the maximum value for this block
-				int maxValueInBlock = maxPerBlock[blockC][blockR];
-				
-				// the histogram equalization factor
-				double heFactor = ((double) maxValueInBlock) / pixelsPerBock;
-				
-				// calculate mapping function w/ histogram equalization
-				for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
-					histogramsPerBlock[blockC][blockR][brightness] = (int) (heFactor * histogramsPerBlock[blockC][blockR][brightness]);
+		event = StageEvent.begin(this, "mapping", grid, blockSize, parameterValues);
+		
+		// the mapping functions, only recalculated with the clipped histograms
+		int[][][] mappingsPerBlock = mappingStage.get(Arrays.asList(clippedHistogramsPerBlock), () -> {
+			
+			// copy of the clipped histograms to map in place
+			int[][][] histogramsPerBlock = Stage.copy(clippedHistogramsPerBlock);
+			
+			// Calculate mapped value for each brightness value per block w/ histogram equalization
+			for (int blockC = 0; blockC < numBlocksCol; blockC ++) {
+				for (int blockR = 0; blockR < numBlocksRow; blockR ++) {
+					// calculate running histogram
+					for (int brightness = 1; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
+						histogramsPerBlock[blockC][blockR][brightness] += histogramsPerBlock[blockC][blockR][brightness-1];
+					}
+					
+					// the maximum value for this block
+					int maxValueInBlock = maxPerBlock[blockC][blockR];
+					
+					// the histogram equalization factor
+					double heFactor = ((double) maxValueInBlock) / grid.pixelsPerBlock(blockC, blockR);
+					
+					// calculate mapping function w/ histogram equalization
+					for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
+						histogramsPerBlock[blockC][blockR][brightness] = (int) (heFactor * histogramsPerBlock[blockC][blockR][brightness]);
+					}
 				}
 			}
-		}
-		
+			
+			return histogramsPerBlock;
+		});
+		event.commit();
 		
-		// STEP 5 - Bilinear Interpolation -- //
+		checkCancelled();
 		
-		// the transformed brightness values
-		int[][] hsbNewBrightnessValues = new int[Utilities.IMAGE_SIZE][Utilities.IMAGE_SIZE];
 		
-		// half of the block size col and row
-		int halfPixelsPerBlockCol = pixelsPerBlockCol / 2;
-		int halfPixelsPerBlockRow = pixelsPerBlockRow / 2;
+		// return the mapping functions, interpolated in Step 5
+		return mappingsPerBlock;
 		
-		// set the new image
-		for (int c = 0; c < Utilities.IMAGE_SIZE; c ++) {
-			for (int r = 0; r < Utilities.IMAGE_SIZE; r ++) {
-				// the original pixel value
-				int p = hsbBrightnessValues[c][r];
-				
-				// block coordinates for this point
-				int blockC = c / pixelsPerBlockCol;
-				int blockR = r / pixelsPerBlockRow;
-				
-				// SPATIAL coordinates for the center of the block
-				int centerBlockC = blockC * pixelsPerBlockCol + halfPixelsPerBlockCol;
-				int centerBlockR = blockR * pixelsPerBlockRow + halfPixelsPerBlockRow;
-				
-				// get block column 1 and 2
-				int bc1, bc2;
-	            if (c < centerBlockC) {
-	                bc1 = blockC - 1;
-	                if (bc1 < 0) bc1 = 0;
-	                bc2 = blockC;
-	            } else {
-	                bc1 = blockC;
-	                bc2 = blockC + 1;
-	                if (bc2 >= numBlocksCol) bc2 = blockC;
-	            }
-	            
-	            // get block row 1 and 2
-	            int br1, br2;
-	            if (r < centerBlockR) {
-	                br1 = blockR - 1;
-	                if (br1 < 0) br1 = 0;
-	                br2 = blockR;
-	            } else {
-	                br1 = blockR;
-	                br2 = blockR + 1;
-	                if (br2 >= numBlocksRow) br2 = blockR;
-	            }
-	            
-	            // spatial coordinate of block centers
-	            int c1 = bc1 * pixelsPerBlockCol + halfPixelsPerBlockCol;
-	            int c2 = bc2 * pixelsPerBlockCol + halfPixelsPerBlockCol;
-	            int r1 = br1 * pixelsPerBlockRow + halfPixelsPerBlockRow;
-	            int r2 = br2 * pixelsPerBlockRow + halfPixelsPerBlockRow;
-	            
-	            // get m and n values
-	            double m = (c2 - c1 == 0) ? 0 :  ((double) (c2 - c)) / (c2 - c1);
-	            double n = (r2 - r1 == 0) ? 0 :  ((double) (r2 - r)) / (r2 - r1);
-
-	            // histogram equalization function mapping values
-	            int Ta = histogramsPerBlock[bc1][br1][p];
-	            int Tb = histogramsPerBlock[bc1][br2][p];
-	            int Tc = histogramsPerBlock[bc2][br1][p];
-	            int Td = histogramsPerBlock[bc2][br2][p];
-	            
-	            // calculate and set transformed pixel value
-	            hsbNewBrightnessValues[c][r] =(int) (m * (n * Ta + (1 - n) * Tb) + (1 - m) * (n * Tc + (1 - n) * Td));
-	            
-			}
+	}
+	
+	public String[] getParameterNames() {
+		return new String[] {"blockSize", "alpha", "Smax"};
+	}
+	
+	public int getParameter(String parameterName) {
+		switch (parameterName) {
+			case "blockSize": return blockSize;
+			case "alpha": return alpha;
+			case "Smax": return Smax;
+			default: return super.getParameter(parameterName);
+		}
+	}
+	
+	public int[] getParameterRange(String parameterName) {
+		switch (parameterName) {
+			case "blockSize": return new int[] {1, 16};
+			case "alpha": return new int[] {0, 500};
+			case "Smax": return new int[] {1, 40};
+			default: return super.getParameterRange(parameterName);
+		}
+	}
+	
+	public void setParameter(String parameterName, int value) {
+		switch (parameterName) {
+			case "blockSize": blockSize = value; break;
+			case "alpha": alpha = value; break;
+			case "Smax": Smax = value; break;
+			default: super.setParameter(parameterName, value);
 		}
-		
-		// set transformed image
-		imageLabel.setIcon(new ImageIcon(Utilities.createBufferedImage(hsbImage, hsbNewBrightnessValues, hsbBrightnessMaxIntValue)));
-		
 	}
 	
 	public String toString() {
 		return "CLAHE";
 	}
 	
-	private int blockSize;
 	private int alpha;
 	private int Smax;
 	
+	// memoized stages, each recalculated only when its inputs change
+	private final Stage<int[][][]> clippingStage = new Stage<>("clipping");
+	private final Stage<int[][][]> mappingStage = new Stage<>("mapping");
+	
 }
@@ -0,0 +1,168 @@
+package transformations;
+
+import java.awt.image.BufferedImage;
+
+import utils.Utilities;
+
+/**
+ * Transforms a sequence of frames, e.g. of a video or a surveillance camera, with a block transformation.
+ * Consecutive frames are mostly the same, so the mapping functions of the blocks are reused across frames: the average brightness
+ * of each block is compared to the average the mapping function of the block was calculated for, and only the blocks that drifted by
+ * more than the drift threshold are recalculated: their histograms and statistics are read from the frame, the other blocks keep theirs,
+ * and only their mapping functions are replaced. The clipping and mapping run over the statistics of every block, since the levels of
+ * ACLAHEwDGC are global, but their cost depends on the number of blocks and not on the frame size. A recalculated mapping function is approached by the
+ * adaptation rate per frame instead of replacing the previous one at once, so sudden changes do not flicker.
+ * Without drift, a frame only costs the color conversions, the block averages and the interpolation.
+ * The hsb, brightness and output buffers are reused for every frame of the same size.
+ * @author JLepere2
+ * @date 05/16/2018
+ */
+public class FrameStream {
+
+	/**
+	 * Creates a frame stream.
+	 * @param transformation the block transformation with its parameters, parameters changed between frames apply to the drifted blocks
+	 * @param driftThreshold the change of the average brightness of a block, between 0 and 1000, above which its mapping function is recalculated
+	 * @param adaptationRate the percentage of the way from the previous to the recalculated mapping function taken per frame, 100 to replace it at once
+	 */
+	public FrameStream(ABlockTransformation transformation, int driftThreshold, int adaptationRate) {
+		if (driftThreshold < 0 || adaptationRate < 1 || adaptationRate > 100) throw new IllegalArgumentException("Drift threshold must not be negative and adaptation rate must be between 1 and 100");
+		this.transformation = transformation;
+		this.driftThreshold = driftThreshold;
+		this.adaptationRate = adaptationRate;
+	}
+	
+	/**
+	 * Transforms the next frame.
+	 * @param frame the frame
+	 * @return the transformed frame, the same image is overwritten by the next frame of the same size
+	 */
+	public BufferedImage next(BufferedImage frame) {
+		
+		// buffers of the frame size, only reallocated when the size changes
+		int width = frame.getWidth();
+		int height = frame.getHeight();
+		if (hsbFrame == null || hsbFrame.length != height || hsbFrame[0].length != width) {
+			hsbFrame = new float[height][width][3];
+			brightnessValues = new int[height][width];
+			newBrightnessValues = new int[height][width];
+			transformedFrame = null;
+			mappingsPerBlock = null;
+		}
+		
+		// the hsb and brightness values of the frame
+		Utilities.getImage(frame, hsbFrame);
+		int[][] hsbBrightnessValues = Utilities.hsbBrightnessExtractor(hsbFrame, ATransformation.hsbBrightnessMaxIntValue, brightnessValues);
+		
+		// the block grid, the mapping functions start over when it changes
+		int blockSize = transformation.blockSize;
+		BlockGrid grid = transformation.getGrid(hsbBrightnessValues, blockSize);
+		if (grid != this.grid) {
+			this.grid = grid;
+			mappingsPerBlock = null;
+		}
+		if (mappingsPerBlock == null) statistics = null;
+		
+		// average brightness of each block
+		long[][] sumPerBlock = new long[grid.numBlocksCol][grid.numBlocksRow];
+		for (int c = 0; c < height; c ++) {
+			long[] sums = sumPerBlock[grid.blockOfCol(c)];
+			int[] pixels = hsbBrightnessValues[c];
+			for (int r = 0; r < width; r ++) {
+				sums[grid.blockOfRow(r)] += pixels[r];
+			}
+		}
+		int[][] avgPerBlock = new int[grid.numBlocksCol][grid.numBlocksRow];
+		for (int blockC = 0; blockC < grid.numBlocksCol; blockC ++) {
+			for (int blockR = 0; blockR < grid.numBlocksRow; blockR ++) {
+				avgPerBlock[blockC][blockR] = (int) (sumPerBlock[blockC][blockR] / grid.pixelsPerBlock(blockC, blockR));
+			}
+		}
+		
+		// the blocks that drifted, or are still approaching their recalculated mapping function
+		recalculatedBlocks = 0;
+		boolean[][] recalculate = new boolean[grid.numBlocksCol][grid.numBlocksRow];
+		for (int blockC = 0; blockC < grid.numBlocksCol; blockC ++) {
+			for (int blockR = 0; blockR < grid.numBlocksRow; blockR ++) {
+				recalculate[blockC][blockR] = mappingsPerBlock == null || adapting[blockC][blockR]
+						|| Math.abs(avgPerBlock[blockC][blockR] - referenceAvgPerBlock[blockC][blockR]) > driftThreshold;
+				if (recalculate[blockC][blockR]) recalculatedBlocks ++;
+			}
+		}
+		
+		// recalculate the mapping functions and approach them in the blocks to recalculate
+		if (recalculatedBlocks > 0) {
+			
+			// Step 2 only reads the pixels of the blocks to recalculate, the other blocks keep the statistics of the frame they were calculated for
+			StageEvent event = StageEvent.begin(transformation, "histograms", grid, blockSize);
+			if (statistics == null) statistics = new BlockStatistics(hsbBrightnessValues, grid, ATransformation.hsbBrightnessMaxIntValue, transformation.withDeviation, transformation.parallel);
+			else statistics = new BlockStatistics(hsbBrightnessValues, statistics, recalculate, transformation.withDeviation, transformation.parallel);
+			event.commit();
+			
+			// Steps 3 and 4 from the statistics, their cost depends on the number of blocks and not on the frame size
+			int[][][] recalculatedMappingsPerBlock = transformation.getMappingsPerBlock(statistics, grid, blockSize);
+			if (mappingsPerBlock == null) {
+				// the first frame uses the mapping functions as they are
+				mappingsPerBlock = Stage.copy(recalculatedMappingsPerBlock);
+				referenceAvgPerBlock = avgPerBlock;
+				adapting = new boolean[grid.numBlocksCol][grid.numBlocksRow];
+			} else {
+				for (int blockC = 0; blockC < grid.numBlocksCol; blockC ++) {
+					for (int blockR = 0; blockR < grid.numBlocksRow; blockR ++) {
+						if (!recalculate[blockC][blockR]) continue;
+						int[] mapping = mappingsPerBlock[blockC][blockR];
+						int[] recalculatedMapping = recalculatedMappingsPerBlock[blockC][blockR];
+						
+						// move each mapped value by the adaptation rate, rounded and by at least 1, so the block keeps adapting until every value is reached
+						boolean reached = true;
+						for (int brightness = 0; brightness < mapping.length; brightness ++) {
+							int gap = recalculatedMapping[brightness] - mapping[brightness];
+							int step = (int) Math.round(gap * adaptationRate / 100.0);
+							if (step == 0) step = Integer.signum(gap);
+							mapping[brightness] += step;
+							if (mapping[brightness] != recalculatedMapping[brightness]) reached = false;
+						}
+						adapting[blockC][blockR] = !reached;
+						referenceAvgPerBlock[blockC][blockR] = avgPerBlock[blockC][blockR];
+					}
+				}
+			}
+		}
+		
+		// interpolate and render into the reused buffers
+		BilinearInterpolation.interpolate(hsbBrightnessValues, mappingsPerBlock, grid, transformation.parallel, transformation.fixedPoint, newBrightnessValues);
+		transformedFrame = Utilities.createBufferedImage(hsbFrame, newBrightnessValues, ATransformation.hsbBrightnessMaxIntValue, transformedFrame, transformation.parallel);
+		return transformedFrame;
+		
+	}
+	
+	/**
+	 * Gets the number of blocks whose mapping function was recalculated for the last frame.
+	 * @return the number of recalculated blocks, 0 if the mapping functions of the previous frame were reused
+	 */
+	public int getRecalculatedBlocks() {
+		return recalculatedBlocks;
+	}
+	
+	// the transformation and the reuse parameters
+	private final ABlockTransformation transformation;
+	private final int driftThreshold;
+	private final int adaptationRate;
+	
+	// buffers reused for every frame of the same size
+	private float[][][] hsbFrame;
+	private int[][] brightnessValues;
+	private int[][] newBrightnessValues;
+	private BufferedImage transformedFrame;
+	
+	// the block grid, the statistics of each block, the mapping function of each block, the average it was calculated for and whether it is still adapting
+	private BlockGrid grid;
+	private BlockStatistics statistics;
+	private int[][][] mappingsPerBlock;
+	private int[][] referenceAvgPerBlock;
+	private boolean[][] adapting;
+	
+	// the number of blocks recalculated for the last frame
+	private int recalculatedBlocks;
+	
+}
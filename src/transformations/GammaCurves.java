@@ -0,0 +1,57 @@
+package transformations;
+
+/**
+ * The Gamma curves of the dual gamma correction, Gamma(l) = Lmax * (l / Lmax)^((1 + cdfw(l)) / 2), tabulated once per image.
+ * The weighted cdf cdfw(l) is an integer division of the weighted cumulative histogram by its sum, so it is 0 below the
+ * brightness values where the weighted cumulative histogram reaches its sum and 1 from there on. The curves for these two
+ * exponents are tabulated with the same expression as the direct calculation, so the lookups are exact and no block evaluates Math.pow.
+ * @author JLepere2
+ * @date 05/15/2018
+ */
+public class GammaCurves {
+
+	/**
+	 * Tabulates the Gamma curves for the maximum brightness value of an image.
+	 * @param Lmax the maximum brightness value of the image
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value of the histograms
+	 */
+	public GammaCurves(int Lmax, int hsbBrightnessMaxIntValue) {
+		this.Lmax = Lmax;
+		squareRoot = new int[hsbBrightnessMaxIntValue+1];
+		linear = new int[hsbBrightnessMaxIntValue+1];
+		for (int brightness = 0; brightness < hsbBrightnessMaxIntValue+1; brightness ++) {
+			squareRoot[brightness] = calculate(brightness, 0);
+			linear[brightness] = calculate(brightness, 1);
+		}
+	}
+	
+	/**
+	 * Gets the Gamma value of a brightness value.
+	 * @param brightness the brightness value
+	 * @param weightedCdf the weighted cdf of the brightness value, the weighted cumulative histogram divided by its sum
+	 * @return the Gamma value
+	 */
+	public int get(int brightness, int weightedCdf) {
+		if (weightedCdf == 0) return squareRoot[brightness];
+		if (weightedCdf == 1) return linear[brightness];
+		return calculate(brightness, weightedCdf);
+	}
+	
+	/**
+	 * Calculates the Gamma value of a brightness value.
+	 * @param brightness the brightness value
+	 * @param weightedCdf the weighted cdf of the brightness value
+	 * @return the Gamma value
+	 */
+	private int calculate(int brightness, int weightedCdf) {
+		return (int) (Lmax * Math.pow(((double) brightness)/Lmax, (1.0 + weightedCdf) / 2.0));
+	}
+	
+	// the maximum brightness value of the image
+	private final int Lmax;
+	
+	// the Gamma curves with the exponents 1/2 and 1
+	private final int[] squareRoot;
+	private final int[] linear;
+	
+}
@@ -1,10 +1,7 @@
 package transformations;
 
-import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 
-import utils.Utilities;
-
 /**
  * General histogram equalization transformation.
  * @author JLepere2
@@ -21,19 +18,23 @@ public class HistogramEqualization extends ATransformation {
 		super(hsbImage, imageLabel);
 	}
 
-	public void transform() {
+	public int[][] getTransformedBrightnessValues(int[][] hsbBrightnessValues) {
+		
+		// image dimensions
+		int numPixelsCol = hsbBrightnessValues.length;
+		int numPixelsRow = (numPixelsCol == 0) ? 0 : hsbBrightnessValues[0].length;
 		
 		// the matrix for the new brightness values
-		int[][] hsbBrightnessNewValues = new int[Utilities.IMAGE_SIZE][Utilities.IMAGE_SIZE];
+		int[][] hsbBrightnessNewValues = new int[numPixelsCol][numPixelsRow];
 		
 		// array for holding the histogram of the image
 		int[] histogram = new int[hsbBrightnessMaxIntValue + 1];
 		
 		// initialize the histogram
-		for (int c = 0; c < Utilities.IMAGE_SIZE; c ++) {
-			for (int r = 0; r < Utilities.IMAGE_SIZE; r ++) {
+		for (int c = 0; c < numPixelsCol; c ++) {
+			for (int r = 0; r < numPixelsRow; r ++) {
 				// increment the histogram index at the brightness value
-				histogram[this.hsbBrightnessValues[c][r]] ++;
+				histogram[hsbBrightnessValues[c][r]] ++;
 			}
 		}
 		
@@ -43,11 +44,11 @@ public class HistogramEqualization extends ATransformation {
 		}
 		
 		// histogram equalization multiplication factor
-		double heFactor = ((float) (hsbBrightnessMaxIntValue)) / (Utilities.IMAGE_SIZE * Utilities.IMAGE_SIZE);
+		double heFactor = ((float) (hsbBrightnessMaxIntValue)) / ((long) numPixelsCol * numPixelsRow);
 		
 		// set the new image by performing histogram equalization
-		for (int c = 0; c < Utilities.IMAGE_SIZE; c ++) {
-			for (int r = 0; r < Utilities.IMAGE_SIZE; r ++) {
+		for (int c = 0; c < numPixelsCol; c ++) {
+			for (int r = 0; r < numPixelsRow; r ++) {
 				// get the original hsb brightness value
 				int gv = hsbBrightnessValues[c][r];
 
@@ -56,8 +57,8 @@ public class HistogramEqualization extends ATransformation {
 			}
 		}
 		
-		// set the new transformed image
-		imageLabel.setIcon(new ImageIcon(Utilities.createBufferedImage(hsbImage, hsbBrightnessNewValues, hsbBrightnessMaxIntValue)));
+		// return the new transformed brightness values
+		return hsbBrightnessNewValues;
 		
 	}
 	
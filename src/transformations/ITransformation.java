@@ -1,4 +1,6 @@
 package transformations;
+import java.awt.image.BufferedImage;
+
 import javax.swing.JPanel;
 
 /**
@@ -15,14 +17,84 @@ public interface ITransformation {
 	public void newImage(float[][][] hsbImage);
 	
 	/**
-	 * Transforms the current image in the transformation objects buffer.
+	 * Transforms the current image in the transformation objects buffer in the background and shows it on the image label.
+	 * Earlier requests still waiting or running are cancelled, only the latest result is shown. Called on the event dispatch thread.
 	 */
 	public void transform();
 	
+	/**
+	 * Transforms the current image in the background like transform(), at a reduced resolution for a preview.
+	 * Used while a parameter slider is being dragged, the full resolution follows once the slider settles.
+	 * @param preview true to transform at a reduced resolution, false for transform()
+	 */
+	public void transform(boolean preview);
+	
+	/**
+	 * Transforms the current image without displaying it.
+	 * @return the transformed hsb brightness values
+	 */
+	public int[][] getTransformedBrightnessValues();
+	
+	/**
+	 * Transforms brightness values other than the current image with the current parameters.
+	 * @param hsbBrightnessValues the brightness values to transform, between 0 and 1000
+	 * @return the transformed hsb brightness values
+	 */
+	public int[][] getTransformedBrightnessValues(int[][] hsbBrightnessValues);
+	
+	/**
+	 * Transforms the current image without displaying it.
+	 * @return the transformed image
+	 */
+	public BufferedImage getTransformedImage();
+	
+	/**
+	 * Gets the names of the parameters of this transformation.
+	 * @return the parameter names, empty if the transformation has no parameters
+	 */
+	public String[] getParameterNames();
+	
+	/**
+	 * Gets the current value of a parameter.
+	 * @param parameterName the name of the parameter
+	 * @return the current value of the parameter
+	 */
+	public int getParameter(String parameterName);
+	
+	/**
+	 * Gets the range of valid values of a parameter, the range of its slider.
+	 * @param parameterName the name of the parameter
+	 * @return the minimum and maximum value of the parameter
+	 */
+	public int[] getParameterRange(String parameterName);
+	
+	/**
+	 * Sets the value of a parameter. The parameter panel is not updated.
+	 * @param parameterName the name of the parameter
+	 * @param value the new value of the parameter
+	 */
+	public void setParameter(String parameterName, int value);
+	
+	/**
+	 * Sets whether the stages of the transformation may run concurrently on the fork/join pool. The result is the same either way.
+	 * @param parallel true to run the stages concurrently
+	 */
+	public void setParallel(boolean parallel);
+	
+	/**
+	 * Sets whether the bilinear interpolation uses fixed point weights instead of double precision.
+	 * Transformed brightness values differ by at most 1. Transformations without interpolation are not affected.
+	 * @param fixedPoint true to interpolate in fixed point
+	 */
+	public void setFixedPoint(boolean fixedPoint);
+	
 	/**
 	 * Gets the parameter panel specific to this transformation.
 	 * @return the transformation specific parameter selection panel.
 	 */
 	public JPanel getParameterPanel();
 	
+	// hsb brightness is a float between 0 and 1 so the transformations make it between 0 and this value for histogram calculations
+	public static final int HSB_BRIGHTNESS_MAX_INT_VALUE = 1000;
+	
 }
@@ -0,0 +1,79 @@
+package transformations;
+
+/**
+ * Neighboring blocks and bilinear weights for each pixel along one dimension of a block grid.
+ * The interpolation of a pixel only depends on its column and row, so the tables replace the
+ * per pixel block, center and weight calculations of Step 5 with lookups.
+ * The weights are kept in double precision and as Q16 fixed point integers for the fixed point interpolation.
+ * @author JLepere2
+ * @date 05/13/2018
+ */
+public class InterpolationTable {
+
+	/**
+	 * Creates the table for one dimension of a block grid.
+	 * @param blockOf the block index of each pixel
+	 * @param blockCenters the SPATIAL coordinate of the center of each block
+	 */
+	public InterpolationTable(int[] blockOf, int[] blockCenters) {
+		int numPixels = blockOf.length;
+		int numBlocks = blockCenters.length;
+		block1 = new int[numPixels];
+		block2 = new int[numPixels];
+		weight1 = new double[numPixels];
+		weight2 = new double[numPixels];
+		fixedWeight1 = new int[numPixels];
+		fixedWeight2 = new int[numPixels];
+		
+		for (int pixel = 0; pixel < numPixels; pixel ++) {
+			// block coordinate and SPATIAL coordinate of the center of the block for this pixel
+			int block = blockOf[pixel];
+			int centerBlock = blockCenters[block];
+			
+			// get block 1 and 2
+			int b1, b2;
+			if (pixel < centerBlock) {
+				b1 = block - 1;
+				if (b1 < 0) b1 = 0;
+				b2 = block;
+			} else {
+				b1 = block;
+				b2 = block + 1;
+				if (b2 >= numBlocks) b2 = block;
+			}
+			
+			// spatial coordinate of block centers
+			int center1 = blockCenters[b1];
+			int center2 = blockCenters[b2];
+			
+			// weight of block 1, and of block 2
+			double weight = (center2 - center1 == 0) ? 0 : ((double) (center2 - pixel)) / (center2 - center1);
+			
+			block1[pixel] = b1;
+			block2[pixel] = b2;
+			weight1[pixel] = weight;
+			weight2[pixel] = 1 - weight;
+			
+			// the weights rounded to fixed point, their sum is exactly one
+			fixedWeight1[pixel] = (int) Math.round(weight * FIXED_POINT_ONE);
+			fixedWeight2[pixel] = FIXED_POINT_ONE - fixedWeight1[pixel];
+		}
+	}
+	
+	// the lower and upper neighboring block of each pixel
+	public final int[] block1;
+	public final int[] block2;
+	
+	// the weights of the lower and upper neighboring blocks, m and 1 - m
+	public final double[] weight1;
+	public final double[] weight2;
+	
+	// the same weights in fixed point with FIXED_POINT_BITS fractional bits
+	public final int[] fixedWeight1;
+	public final int[] fixedWeight2;
+	
+	// the number of fractional bits of the fixed point weights, and one in fixed point
+	public static final int FIXED_POINT_BITS = 16;
+	public static final int FIXED_POINT_ONE = 1 << FIXED_POINT_BITS;
+	
+}
@@ -0,0 +1,209 @@
+package transformations;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The innermost loops of the histogram clipping and redistribution (Step 3) and of the bilinear interpolation (Step 5),
+ * in double precision or fixed point.
+ * This class implements them as scalar loops. The kernels used by the transformations are selected once at runtime:
+ * VectorKernels, implemented with the Java Vector API, when the jdk.incubator.vector module is available and its results
+ * match the scalar kernels on a test input, and these scalar kernels otherwise or when the system property kernels=scalar is set.
+ * Both implementations give identical results.
+ * @author JLepere2
+ * @date 05/15/2018
+ */
+public class Kernels {
+
+	/**
+	 * Clips a histogram in place.
+	 * @param histogram the histogram
+	 * @param from the first brightness value to clip
+	 * @param to the brightness value after the last to clip
+	 * @param B the clipping threshold
+	 * @return the total amount clipped
+	 */
+	public int clip(int[] histogram, int from, int to, int B) {
+		int totalClipped = 0;
+		for (int brightness = from; brightness < to; brightness ++) {
+			// get the count for this brightness value
+			int brightnessCount = histogram[brightness];
+			if (brightnessCount > B) {
+				// add amount clipped
+				totalClipped += brightnessCount - B;
+				// clip
+				histogram[brightness] = B;
+			}
+		}
+		return totalClipped;
+	}
+	
+	/**
+	 * Gets the amount that clipping would remove from a histogram, without modifying it.
+	 * @param histogram the histogram
+	 * @param from the first brightness value
+	 * @param to the brightness value after the last
+	 * @param B the clipping threshold
+	 * @return the total amount above the clipping threshold
+	 */
+	public int excess(int[] histogram, int from, int to, int B) {
+		int totalClipped = 0;
+		for (int brightness = from; brightness < to; brightness ++) {
+			if (histogram[brightness] > B) totalClipped += histogram[brightness] - B;
+		}
+		return totalClipped;
+	}
+	
+	/**
+	 * Adds the same amount to every brightness value of a histogram.
+	 * @param histogram the histogram
+	 * @param redistributionPerBrightness the amount to add
+	 */
+	public void redistribute(int[] histogram, int redistributionPerBrightness) {
+		for (int brightness = 0; brightness < histogram.length; brightness ++) {
+			histogram[brightness] += redistributionPerBrightness;
+		}
+	}
+	
+	/**
+	 * Interpolates a column of pixels between the mapping functions of the four neighboring blocks of each pixel.
+	 * @param pixels the original brightness values of the column
+	 * @param mappings1 the mapping functions of the blocks of the lower neighboring block column
+	 * @param mappings2 the mapping functions of the blocks of the upper neighboring block column
+	 * @param br1 the lower neighboring block row of each pixel
+	 * @param br2 the upper neighboring block row of each pixel
+	 * @param n the n weight of each pixel
+	 * @param nComplement the 1 - n weight of each pixel
+	 * @param m the m weight of the column
+	 * @param mComplement the 1 - m weight of the column
+	 * @param newPixels the transformed brightness values of the column to set
+	 */
+	public void interpolate(int[] pixels, int[][] mappings1, int[][] mappings2, int[] br1, int[] br2, double[] n, double[] nComplement, double m, double mComplement, int[] newPixels) {
+		for (int r = 0; r < pixels.length; r ++) {
+			// the original pixel value
+			int p = pixels[r];
+			
+			// histogram equalization function mapping values
+			int Ta = mappings1[br1[r]][p];
+			int Tb = mappings1[br2[r]][p];
+			int Tc = mappings2[br1[r]][p];
+			int Td = mappings2[br2[r]][p];
+			
+			// calculate and set transformed pixel value
+			newPixels[r] = (int) (m * (n[r] * Ta + nComplement[r] * Tb) + mComplement * (n[r] * Tc + nComplement[r] * Td));
+		}
+	}
+	
+	/**
+	 * Interpolates a column of pixels as interpolate, with fixed point weights. Only integer arithmetic is used: the weighted
+	 * sums of a block column are exact in int for mapping values below 2^14, the weighted sum of both block columns is exact in long,
+	 * and the result is truncated by shifting out the fractional bits of both weights.
+	 * @param pixels the original brightness values of the column
+	 * @param mappings1 the mapping functions of the blocks of the lower neighboring block column
+	 * @param mappings2 the mapping functions of the blocks of the upper neighboring block column
+	 * @param br1 the lower neighboring block row of each pixel
+	 * @param br2 the upper neighboring block row of each pixel
+	 * @param n the fixed point n weight of each pixel
+	 * @param nComplement the fixed point 1 - n weight of each pixel
+	 * @param m the fixed point m weight of the column
+	 * @param mComplement the fixed point 1 - m weight of the column
+	 * @param newPixels the transformed brightness values of the column to set
+	 */
+	public void interpolateFixedPoint(int[] pixels, int[][] mappings1, int[][] mappings2, int[] br1, int[] br2, int[] n, int[] nComplement, int m, int mComplement, int[] newPixels) {
+		for (int r = 0; r < pixels.length; r ++) {
+			// the original pixel value
+			int p = pixels[r];
+			
+			// histogram equalization function mapping values
+			int Ta = mappings1[br1[r]][p];
+			int Tb = mappings1[br2[r]][p];
+			int Tc = mappings2[br1[r]][p];
+			int Td = mappings2[br2[r]][p];
+			
+			// calculate and set transformed pixel value
+			long interpolated = (long) m * (n[r] * Ta + nComplement[r] * Tb) + (long) mComplement * (n[r] * Tc + nComplement[r] * Td);
+			newPixels[r] = (int) (interpolated >> (2 * InterpolationTable.FIXED_POINT_BITS));
+		}
+	}
+	
+	public String toString() {
+		return "scalar";
+	}
+	
+	/**
+	 * Gets the kernels selected for this runtime.
+	 * @return the vector kernels if they are available and correct, else the scalar kernels
+	 */
+	public static Kernels getKernels() {
+		return kernels;
+	}
+	
+	/**
+	 * Selects the kernels. The vector kernels are loaded by name, so this class and the transformations do not depend on the
+	 * jdk.incubator.vector module and run unchanged without it.
+	 * @return the selected kernels
+	 */
+	private static Kernels select() {
+		Kernels scalar = new Kernels();
+		if ("scalar".equals(System.getProperty("kernels"))) return scalar;
+		try {
+			Kernels vector = (Kernels) Class.forName("transformations.VectorKernels").getDeclaredConstructor().newInstance();
+			return matches(vector, scalar) ? vector : scalar;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			// not compiled, or the module was not added to the runtime
+			return scalar;
+		}
+	}
+	
+	/**
+	 * Compares the results of two kernel implementations on a random input that is not a multiple of any vector length.
+	 * @param kernels the kernels to check
+	 * @param reference the reference kernels
+	 * @return true if every kernel gives the same result
+	 */
+	private static boolean matches(Kernels kernels, Kernels reference) {
+		Random random = new Random(0);
+		int length = 1001;
+		
+		// random histogram and mapping functions
+		int[] histogram = random.ints(length, 0, 50).toArray();
+		int[][] mappings1 = new int[][] {random.ints(length, 0, length).toArray(), random.ints(length, 0, length).toArray()};
+		int[][] mappings2 = new int[][] {random.ints(length, 0, length).toArray(), random.ints(length, 0, length).toArray()};
+		
+		// random pixels, neighboring blocks and weights
+		int[] pixels = random.ints(length, 0, length).toArray();
+		int[] br1 = random.ints(length, 0, 2).toArray();
+		int[] br2 = random.ints(length, 0, 2).toArray();
+		double[] n = random.doubles(length).toArray();
+		double[] nComplement = Arrays.stream(n).map(weight -> 1 - weight).toArray();
+		double m = random.nextDouble();
+		
+		// clipping and redistribution
+		int[] clipped = histogram.clone();
+		int[] referenceClipped = histogram.clone();
+		if (kernels.excess(histogram, 3, length, 20) != reference.excess(histogram, 3, length, 20)) return false;
+		if (kernels.clip(clipped, 3, length, 20) != reference.clip(referenceClipped, 3, length, 20)) return false;
+		kernels.redistribute(clipped, 7);
+		reference.redistribute(referenceClipped, 7);
+		if (!Arrays.equals(clipped, referenceClipped)) return false;
+		
+		// interpolation
+		int[] newPixels = new int[length];
+		int[] referenceNewPixels = new int[length];
+		kernels.interpolate(pixels, mappings1, mappings2, br1, br2, n, nComplement, m, 1 - m, newPixels);
+		reference.interpolate(pixels, mappings1, mappings2, br1, br2, n, nComplement, m, 1 - m, referenceNewPixels);
+		if (!Arrays.equals(newPixels, referenceNewPixels)) return false;
+		
+		// fixed point interpolation
+		int[] fixedN = Arrays.stream(n).mapToInt(weight -> (int) Math.round(weight * InterpolationTable.FIXED_POINT_ONE)).toArray();
+		int[] fixedNComplement = Arrays.stream(fixedN).map(weight -> InterpolationTable.FIXED_POINT_ONE - weight).toArray();
+		int fixedM = (int) Math.round(m * InterpolationTable.FIXED_POINT_ONE);
+		kernels.interpolateFixedPoint(pixels, mappings1, mappings2, br1, br2, fixedN, fixedNComplement, fixedM, InterpolationTable.FIXED_POINT_ONE - fixedM, newPixels);
+		reference.interpolateFixedPoint(pixels, mappings1, mappings2, br1, br2, fixedN, fixedNComplement, fixedM, InterpolationTable.FIXED_POINT_ONE - fixedM, referenceNewPixels);
+		return Arrays.equals(newPixels, referenceNewPixels);
+	}
+	
+	// the kernels used by the transformations
+	private static final Kernels kernels = select();
+	
+}
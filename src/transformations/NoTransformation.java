@@ -1,9 +1,6 @@
 package transformations;
-import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 
-import utils.Utilities;
-
 public class NoTransformation extends ATransformation {
 
 	/**
@@ -15,9 +12,9 @@ public class NoTransformation extends ATransformation {
 		super(hsbImage, imageLabel);
 	}
 	
-	public void transform() {
-		// no transformation is done, just set the image icon on the image label.
-		imageLabel.setIcon(new ImageIcon(Utilities.createBufferedImage(hsbImage, hsbBrightnessValues, hsbBrightnessMaxIntValue)));
+	public int[][] getTransformedBrightnessValues(int[][] hsbBrightnessValues) {
+		// no transformation is done, just return the original brightness values
+		return hsbBrightnessValues;
 	}
 	
 	public String toString() {
@@ -0,0 +1,119 @@
+package transformations;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of transformed images shared by all transformations.
+ * The images are keyed by the fingerprint of the original image, the transformation and its parameter values,
+ * so revisiting a parameter combination, or showing the same transformation in both split panels, reuses the result.
+ * The cache holds at most a memory budget of pixels, the least recently used images are evicted first.
+ * @author JLepere2
+ * @date 05/14/2018
+ */
+public class ResultCache {
+
+	/**
+	 * Gets a cached transformed image.
+	 * @param key the key of the transformed image
+	 * @return the transformed image, null if not cached
+	 */
+	public static synchronized BufferedImage get(String key) {
+		BufferedImage image = images.get(key);
+		if (image == null) misses ++;
+		else hits ++;
+		return image;
+	}
+	
+	/**
+	 * Caches a transformed image, evicting the least recently used images over the memory budget.
+	 * @param key the key of the transformed image
+	 * @param image the transformed image, must not be modified afterwards
+	 */
+	public static synchronized void put(String key, BufferedImage image) {
+		long bytes = bytes(image);
+		if (bytes > memoryBudget) return;
+		BufferedImage previous = images.put(key, image);
+		if (previous != null) usedBytes -= bytes(previous);
+		usedBytes += bytes;
+		evict();
+	}
+	
+	/**
+	 * Sets the memory budget of the cache, 0 disables caching.
+	 * @param bytes the maximum number of bytes of cached pixels
+	 */
+	public static synchronized void setMemoryBudget(long bytes) {
+		memoryBudget = bytes;
+		evict();
+	}
+	
+	/**
+	 * Removes every cached image.
+	 */
+	public static synchronized void clear() {
+		images.clear();
+		usedBytes = 0;
+	}
+	
+	/**
+	 * Gets the number of lookups that found a cached image.
+	 * @return the number of cache hits
+	 */
+	public static synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * Gets the number of lookups that did not find a cached image.
+	 * @return the number of cache misses
+	 */
+	public static synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * Gets the number of bytes of cached pixels.
+	 * @return the bytes used by the cache
+	 */
+	public static synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+	
+	/**
+	 * Evicts the least recently used images until the cache is within the memory budget.
+	 */
+	private static void evict() {
+		Iterator<BufferedImage> iterator = images.values().iterator();
+		while (usedBytes > memoryBudget && iterator.hasNext()) {
+			usedBytes -= bytes(iterator.next());
+			iterator.remove();
+		}
+	}
+	
+	/**
+	 * Gets the number of bytes of the pixels of an image, 4 bytes per integer pixel.
+	 * @param image the image
+	 * @return the bytes of the pixels
+	 */
+	private static long bytes(BufferedImage image) {
+		return 4L * image.getWidth() * image.getHeight();
+	}
+	
+	// default memory budget, about 128 transformed images at the display size
+	public static final long DEFAULT_MEMORY_BUDGET = 128L * 1024 * 1024;
+	
+	// cached images in access order, the least recently used first
+	private static final Map<String, BufferedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+	
+	// memory budget and usage in bytes
+	private static long memoryBudget = DEFAULT_MEMORY_BUDGET;
+	private static long usedBytes;
+	
+	// lookup counters
+	private static long hits;
+	private static long misses;
+	
+}
@@ -0,0 +1,255 @@
+package transformations;
+
+import java.awt.GridLayout;
+import java.util.stream.IntStream;
+
+import javax.swing.JLabel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import utils.SliderPanel;
+
+/**
+ * Automatic Contrast Limited Adaptive Histogram Equalization with Dual Gamma Correction with a sliding window instead of interpolated blocks.
+ * @author JLepere2
+ * @date 05/14/2018
+ */
+public class SlidingWindowACLAHEwDGC extends ASlidingWindowTransformation {
+
+	/**
+	 * Creates object for sliding window ACLAHEwDGC transformation. 
+	 * @param hsbImage the original image in hsb format
+	 * @param imageLabel the image label to modify for displaying the transformed image
+	 */
+	public SlidingWindowACLAHEwDGC(float[][][] hsbImage, JLabel imageLabel) {
+		super(hsbImage, imageLabel);
+		
+		// initial parameters
+		alpha = 100;
+		P = 1;
+		D = 50;
+		
+		// main panel initialization
+		parameterPanel.setLayout(new GridLayout(4, 1));
+		
+		// window size input
+		SliderPanel windowSizePanel = new SliderPanel("Window", new int[]{15, 31, 63, 127, 255}, 2);
+		windowSizePanel.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				windowSize = windowSizePanel.getCurrentValue();
+				transform(windowSizePanel.getValueIsAdjusting());
+			}
+		});
+		
+		// alpha input
+		SliderPanel alphaPanel = new SliderPanel("Alpha", IntStream.rangeClosed(0, 500).toArray(), 100);
+		alphaPanel.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				alpha = alphaPanel.getCurrentValue();
+				transform(alphaPanel.getValueIsAdjusting());
+			}
+		});
+		
+		// P size input
+		SliderPanel PPanel = new SliderPanel("P", IntStream.rangeClosed(1, 40).toArray(), 0);
+		PPanel.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				P = PPanel.getCurrentValue();
+				transform(PPanel.getValueIsAdjusting());
+			}
+		});
+		
+		// D size input
+		SliderPanel DPanel = new SliderPanel("D", IntStream.rangeClosed(0, 100).toArray(), 50);
+		DPanel.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				D = DPanel.getCurrentValue();
+				transform(DPanel.getValueIsAdjusting());
+			}
+		});
+		
+		// add components to main panel
+		parameterPanel.add(windowSizePanel);
+		parameterPanel.add(alphaPanel);
+		parameterPanel.add(PPanel);
+		parameterPanel.add(DPanel);
+	}
+	
+	protected WindowMapping getWindowMapping(int[][] hsbBrightnessValues) {
+		
+		// the parameters of this request, the sliders may change the fields while transforming in the background
+		int alpha = this.alpha;
+		int P = this.P;
+		int D = this.D;
+		
+		// global max value and histogram of the image from a single block
+		int numPixelsCol = hsbBrightnessValues.length;
+		int numPixelsRow = (numPixelsCol == 0) ? 0 : hsbBrightnessValues[0].length;
+		BlockStatistics statistics = new BlockStatistics(hsbBrightnessValues, BlockGrid.getGrid(numPixelsCol, numPixelsRow, 1, 1), hsbBrightnessMaxIntValue, false, parallel);
+		int Lmax = statistics.getMax();
+		int[] globalHistogram = statistics.getGlobalHistogram();
+		
+		int Lalpha = getLalpha(globalHistogram, (int) (((long) numPixelsCol * numPixelsRow) * 0.75));
+		
+		return (histogram, count, sum, squares, p) -> map(histogram, count, sum, squares, p, alpha, P, D, Lmax, Lalpha);
+	}
+	
+	/**
+	 * Gets Lalpha such that cdf(Lalpha) = 0.75.
+	 * @param globalHistogram the histogram of the image, accumulated in place
+	 * @param cdfTarget 0.75 of the number of pixels
+	 * @return the brightness value whose cdf is closest to the target
+	 */
+	private static int getLalpha(int[] globalHistogram, int cdfTarget) {
+		int LalphaDiff = Integer.MAX_VALUE;
+		int Lalpha = 0;
+		for (int i = 0; i < globalHistogram.length; i ++) {
+			if (i > 0) globalHistogram[i] += globalHistogram[i-1];
+			int diff = Math.abs(globalHistogram[i] - cdfTarget);
+			if (diff < LalphaDiff) {
+				LalphaDiff = diff;
+				Lalpha = i;
+			}
+		}
+		return Lalpha;
+	}
+	
+	/**
+	 * Maps a pixel with the clipped histogram of the window centered on it and dual gamma correction.
+	 * @param histogram the window histogram, must not be modified
+	 * @param count the number of pixels in the window
+	 * @param sum the sum of the brightness values in the window
+	 * @param squares the sum of the squared brightness values in the window
+	 * @param p the brightness value of the pixel
+	 * @param alpha the alpha parameter
+	 * @param P the P parameter
+	 * @param D the D parameter
+	 * @param Lmax the maximum brightness value of the image
+	 * @param Lalpha the brightness value of the image with cdf 0.75
+	 * @return the transformed brightness value of the pixel
+	 */
+	private static int map(int[] histogram, int count, long sum, long squares, int p, int alpha, int P, int D, int Lmax, int Lalpha) {
+		
+		// minimum and maximum value in the window
+		int min = 0;
+		while (histogram[min] == 0) min ++;
+		int lmax = hsbBrightnessMaxIntValue;
+		while (histogram[lmax] == 0) lmax --;
+		
+		// average and standard deviation of the window
+		int avg = (int) (sum / count);
+		double std = Math.sqrt(((double) (squares - 2 * avg * sum + (long) count * avg * avg)) / count);
+		
+		/*
+		 * Clips the histogram of the window w/ the following clipping threshold β, where:
+		    β = (M/N)*(1+P*(lmax/R)+(α/100)*(σ/(Avg+c)))
+		    M = # pixels in the window
+		    N = dynamic range of the window
+		    lmax = max pixel value in the window
+		    R = hsbBrightnessMaxIntValue
+		    c = 0.0001
+		    Avg = average pixel value
+		    P, α = passed parameters
+		 */
+		double M = count;
+		double N = lmax - min;
+		int B = (int) ((M/N)*(1.0 + P*(lmax/((float) hsbBrightnessMaxIntValue)) + (alpha/100.0)*(std/(avg+0.0001))));
+		
+		// total clipped, values outside of [min, max] are empty
+		int totalClipped = Kernels.getKernels().excess(histogram, min, lmax + 1, B);
+		int redistributionPerBrightness = totalClipped / (hsbBrightnessMaxIntValue+1);
+		
+		// min and max pdf of the clipped and redistributed histogram, outside of [min, max] it is only the redistribution
+		int pdfMin = Integer.MAX_VALUE;
+		int pdfMax = Integer.MIN_VALUE;
+		if (min > 0 || lmax < hsbBrightnessMaxIntValue) {
+			pdfMin = redistributionPerBrightness;
+			pdfMax = redistributionPerBrightness;
+		}
+		for (int brightness = min; brightness <= lmax; brightness ++) {
+			int pdf = Math.min(histogram[brightness], B) + redistributionPerBrightness;
+			if (pdf < pdfMin) pdfMin = pdf;
+			if (pdf > pdfMax) pdfMax = pdf;
+		}
+		
+		// cdf up to the pixel value and in total, and the number of brightness values at the maximum pdf up to the pixel value and in total
+		long cdfP = 0;
+		long cdfTotal = 0;
+		int pdfMaxCountP = 0;
+		int pdfMaxCountTotal = 0;
+		for (int brightness = 0; brightness <= hsbBrightnessMaxIntValue; brightness ++) {
+			int pdf = (brightness < min || brightness > lmax) ? redistributionPerBrightness : Math.min(histogram[brightness], B) + redistributionPerBrightness;
+			cdfTotal += pdf;
+			if (pdf == pdfMax) pdfMaxCountTotal ++;
+			if (brightness <= p) {
+				cdfP += pdf;
+				if (pdf == pdfMax) pdfMaxCountP ++;
+			}
+		}
+		
+		// weighted pdf term: the weighted pdf is pdfMax at the maximum pdf and 0 elsewhere, with integer division as in ACLAHEwDGC
+		int weightedTerm = (pdfMax > pdfMin && pdfMaxCountP == pdfMaxCountTotal) ? 1 : 0;
+		
+		// get cdf of l
+		double cdf = cdfP / (double) cdfTotal;
+		
+		// weighted enhancement for gamma 1
+		double Wen = Math.pow(((double) Lmax) / Lalpha, 1.0 - (Math.log(Math.E + cdf) / 8));
+		
+		// T1
+		int T1 = (int) (lmax * Wen * cdf);
+		if (T1 > hsbBrightnessMaxIntValue) T1 = hsbBrightnessMaxIntValue;
+		
+		// Gamma calculation
+		int Gamma = (int) (Lmax * Math.pow(((double) p)/Lmax, (1.0 + weightedTerm) / 2.0));
+		
+		// Set L
+		int r = lmax - min;
+		if (r > ((D*hsbBrightnessMaxIntValue)/100.0)) {
+			return Math.max(T1, Gamma);
+		} else {
+			return Gamma;
+		}
+		
+	}
+	
+	public String[] getParameterNames() {
+		return new String[] {"windowSize", "alpha", "P", "D"};
+	}
+	
+	public int getParameter(String parameterName) {
+		switch (parameterName) {
+			case "alpha": return alpha;
+			case "P": return P;
+			case "D": return D;
+			default: return super.getParameter(parameterName);
+		}
+	}
+	
+	public int[] getParameterRange(String parameterName) {
+		switch (parameterName) {
+			case "alpha": return new int[] {0, 500};
+			case "P": return new int[] {1, 40};
+			case "D": return new int[] {0, 100};
+			default: return super.getParameterRange(parameterName);
+		}
+	}
+	
+	public void setParameter(String parameterName, int value) {
+		switch (parameterName) {
+			case "alpha": alpha = value; break;
+			case "P": P = value; break;
+			case "D": D = value; break;
+			default: super.setParameter(parameterName, value);
+		}
+	}
+	
+	public String toString() {
+		return "Sliding Window ACLAHEwDGC";
+	}
+	
+	private int alpha;
+	private int P;
+	private int D;
+	
+}
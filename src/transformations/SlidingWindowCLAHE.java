@@ -0,0 +1,162 @@
+package transformations;
+
+import java.awt.GridLayout;
+import java.util.stream.IntStream;
+
+import javax.swing.JLabel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import utils.SliderPanel;
+
+/**
+ * Contrast Limited Adaptive Histogram Equalization with a sliding window instead of interpolated blocks.
+ * @author JLepere2
+ * @date 05/14/2018
+ */
+public class SlidingWindowCLAHE extends ASlidingWindowTransformation {
+
+	/**
+	 * Creates object for sliding window CLAHE transformation. 
+	 * @param hsbImage the original image in hsb format
+	 * @param imageLabel the image label to modify for displaying the transformed image
+	 */
+	public SlidingWindowCLAHE(float[][][] hsbImage, JLabel imageLabel) {
+		super(hsbImage, imageLabel);
+		
+		// initial parameters
+		alpha = 100;
+		Smax = 1;
+		
+		// main panel initialization
+		parameterPanel.setLayout(new GridLayout(3, 1));
+		
+		// window size input
+		SliderPanel windowSizePanel = new SliderPanel("Window", new int[]{15, 31, 63, 127, 255}, 2);
+		windowSizePanel.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				windowSize = windowSizePanel.getCurrentValue();
+				transform(windowSizePanel.getValueIsAdjusting());
+			}
+		});
+		
+		// alpha input
+		SliderPanel alphaPanel = new SliderPanel("Alpha", IntStream.rangeClosed(0, 500).toArray(), 100);
+		alphaPanel.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				alpha = alphaPanel.getCurrentValue();
+				transform(alphaPanel.getValueIsAdjusting());
+			}
+		});
+		
+		// Smax size input
+		SliderPanel SmaxPanel = new SliderPanel("Smax", IntStream.rangeClosed(1, 40).toArray(), 0);
+		SmaxPanel.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				Smax = SmaxPanel.getCurrentValue();
+				transform(SmaxPanel.getValueIsAdjusting());
+			}
+		});
+		
+		// add components to main panel
+		parameterPanel.add(windowSizePanel);
+		parameterPanel.add(alphaPanel);
+		parameterPanel.add(SmaxPanel);
+		
+	}
+	
+	protected WindowMapping getWindowMapping(int[][] hsbBrightnessValues) {
+		
+		// the parameters of this request, the sliders may change the fields while transforming in the background
+		int alpha = this.alpha;
+		int Smax = this.Smax;
+		
+		return (histogram, count, sum, squares, p) -> map(histogram, count, p, alpha, Smax);
+	}
+	
+	/**
+	 * Maps a pixel with the clipped histogram of the window centered on it.
+	 * @param histogram the window histogram, must not be modified
+	 * @param count the number of pixels in the window
+	 * @param p the brightness value of the pixel
+	 * @param alpha the alpha parameter
+	 * @param Smax the Smax parameter
+	 * @return the transformed brightness value of the pixel
+	 */
+	private static int map(int[] histogram, int count, int p, int alpha, int Smax) {
+		
+		// minimum and maximum value in the window
+		int min = 0;
+		while (histogram[min] == 0) min ++;
+		int max = hsbBrightnessMaxIntValue;
+		while (histogram[max] == 0) max --;
+		
+		/*
+		 * Clips the histogram of the window w/ the following clipping threshold β, where:
+		    β = (M/N)*(1+(α/100)*Smax)
+		    M = # pixels in the window
+		    N = dynamic range of the window
+		    α & Smax are passed parameters
+		 */
+		double M = count;
+		double N = max - min;
+		int B = (int) ((M/N)*(1.0+(alpha/100.0)*Smax));
+		
+		// clip the histogram, values outside of [min, max] are empty, and sum the clipped histogram up to the pixel value
+		int totalClipped = 0;
+		int cdf = 0;
+		for (int brightness = min; brightness <= max; brightness ++) {
+			int brightnessCount = histogram[brightness];
+			if (brightnessCount > B) {
+				totalClipped += brightnessCount - B;
+				brightnessCount = B;
+			}
+			if (brightness <= p) cdf += brightnessCount;
+		}
+		
+		// redistribute the clipped amount equally to every brightness up to the pixel value
+		int redistributionPerBrightness = totalClipped / (hsbBrightnessMaxIntValue+1);
+		cdf += (p + 1) * redistributionPerBrightness;
+		
+		// histogram equalization mapping
+		double heFactor = ((double) max) / count;
+		return (int) (heFactor * cdf);
+		
+	}
+	
+	public String[] getParameterNames() {
+		return new String[] {"windowSize", "alpha", "Smax"};
+	}
+	
+	public int getParameter(String parameterName) {
+		switch (parameterName) {
+			case "alpha": return alpha;
+			case "Smax": return Smax;
+			default: return super.getParameter(parameterName);
+		}
+	}
+	
+	public int[] getParameterRange(String parameterName) {
+		switch (parameterName) {
+			case "alpha": return new int[] {0, 500};
+			case "Smax": return new int[] {1, 40};
+			default: return super.getParameterRange(parameterName);
+		}
+	}
+	
+	public void setParameter(String parameterName, int value) {
+		switch (parameterName) {
+			case "alpha": alpha = value; break;
+			case "Smax": Smax = value; break;
+			default: super.setParameter(parameterName, value);
+		}
+	}
+	
+	public String toString() {
+		return "Sliding Window CLAHE";
+	}
+	
+	private int alpha;
+	private int Smax;
+	
+}
@@ -0,0 +1,80 @@
+package transformations;
+
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Memoized output of one stage of a transformation, recalculated only when the inputs of the stage change.
+ * The inputs are compared with equals, so arrays and the outputs of earlier stages are compared by identity:
+ * a stage is recalculated exactly when an earlier stage it depends on was recalculated, or one of its parameters changed.
+ * Stage outputs are shared between calls and must not be modified by later stages, see {@link #copy(int[][][])}.
+ * @author JLepere2
+ * @date 05/14/2018
+ */
+public class Stage<T> {
+
+	/**
+	 * Creates an empty stage.
+	 * @param name the name of the stage reported to the stage listener
+	 */
+	public Stage(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * Gets the output of the stage, calculating it if the inputs changed since the last calculation.
+	 * @param inputs the inputs the output depends on, e.g. Arrays.asList(statistics, alpha)
+	 * @param calculation calculates the output from the inputs
+	 * @return the output of the stage
+	 */
+	public T get(Object inputs, Supplier<T> calculation) {
+		if (output == null || !inputs.equals(this.inputs)) {
+			ObjLongConsumer<String> stageListener = listener;
+			if (stageListener == null) {
+				output = calculation.get();
+			} else {
+				// report the calculation time of the stage
+				long start = System.nanoTime();
+				output = calculation.get();
+				stageListener.accept(name, System.nanoTime() - start);
+			}
+			this.inputs = inputs;
+		}
+		return output;
+	}
+	
+	/**
+	 * Sets the listener notified with the name and calculation time in nanoseconds of every stage that is recalculated, e.g. by a benchmark.
+	 * @param stageListener the listener, null for none
+	 */
+	public static void setListener(ObjLongConsumer<String> stageListener) {
+		listener = stageListener;
+	}
+	
+	/**
+	 * Copies block histograms or mappings so they can be modified in place without changing a stage output.
+	 * @param valuesPerBlock the values indexed by block column, block row and brightness
+	 * @return a deep copy of the values
+	 */
+	public static int[][][] copy(int[][][] valuesPerBlock) {
+		int[][][] copy = new int[valuesPerBlock.length][][];
+		for (int blockC = 0; blockC < valuesPerBlock.length; blockC ++) {
+			copy[blockC] = new int[valuesPerBlock[blockC].length][];
+			for (int blockR = 0; blockR < valuesPerBlock[blockC].length; blockR ++) {
+				copy[blockC][blockR] = valuesPerBlock[blockC][blockR].clone();
+			}
+		}
+		return copy;
+	}
+	
+	// the name of the stage
+	private final String name;
+	
+	// the inputs and output of the last calculation
+	private Object inputs;
+	private T output;
+	
+	// notified of every recalculation, null for none
+	private static volatile ObjLongConsumer<String> listener;
+	
+}
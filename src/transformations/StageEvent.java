@@ -0,0 +1,126 @@
+package transformations;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder event for one step of a block transformation, e.g. the clipping of ACLAHEwDGC.
+ * The event is only filled in when a recording enables it, so the steps cost next to nothing otherwise.
+ * Record with: java -XX:StartFlightRecording=filename=recording.jfr Main
+ * @author JLepere2
+ * @date 05/15/2018
+ */
+@Name("transformations.Stage")
+@Label("Transformation Stage")
+@Category({"ACLAHEwDGC", "Transformations"})
+@Description("One step of a block transformation")
+public class StageEvent extends Event {
+
+	/**
+	 * Begins the event for a step.
+	 * @param transformation the transformation running the step
+	 * @param stage the name of the step
+	 * @param hsbBrightnessValues the brightness values being transformed
+	 * @param blockSize the number of blocks per dimension
+	 * @return the event to commit when the step is done
+	 */
+	public static StageEvent begin(ITransformation transformation, String stage, int[][] hsbBrightnessValues, int blockSize) {
+		return begin(transformation, stage, hsbBrightnessValues.length, (hsbBrightnessValues.length == 0) ? 0 : hsbBrightnessValues[0].length, blockSize, null);
+	}
+	
+	/**
+	 * Begins the event for a step that only uses the block grid, e.g. the steps after the block statistics.
+	 * @param transformation the transformation running the step
+	 * @param stage the name of the step
+	 * @param grid the block grid of the image being transformed
+	 * @param blockSize the number of blocks per dimension
+	 * @return the event to commit when the step is done
+	 */
+	public static StageEvent begin(ITransformation transformation, String stage, BlockGrid grid, int blockSize) {
+		return begin(transformation, stage, grid.numPixelsCol, grid.numPixelsRow, blockSize, null);
+	}
+	
+	/**
+	 * Begins the event for a step that only uses the block grid and the parameters of the transformation, e.g. the clipping.
+	 * @param transformation the transformation running the step
+	 * @param stage the name of the step
+	 * @param grid the block grid of the image being transformed
+	 * @param blockSize the number of blocks per dimension
+	 * @param parameterValues the parameter values the step uses, read by the step at the start of the request, in the order of the parameter names
+	 * @return the event to commit when the step is done
+	 */
+	public static StageEvent begin(ITransformation transformation, String stage, BlockGrid grid, int blockSize, int[] parameterValues) {
+		return begin(transformation, stage, grid.numPixelsCol, grid.numPixelsRow, blockSize, parameterValues);
+	}
+	
+	/**
+	 * Begins the event for a step of an image whose brightness values are not all in memory, e.g. the decomposition of an image streamed in strips.
+	 * @param transformation the transformation running the step
+	 * @param stage the name of the step
+	 * @param height the height of the image
+	 * @param width the width of the image
+	 * @param blockSize the number of blocks per dimension
+	 * @return the event to commit when the step is done
+	 */
+	public static StageEvent begin(ITransformation transformation, String stage, int height, int width, int blockSize) {
+		return begin(transformation, stage, height, width, blockSize, null);
+	}
+	
+	/**
+	 * Begins the event for a step of an image of a given size.
+	 * @param transformation the transformation running the step
+	 * @param stage the name of the step
+	 * @param height the height of the image
+	 * @param width the width of the image
+	 * @param blockSize the number of blocks per dimension
+	 * @param parameterValues the parameter values the step uses in the order of the parameter names, null if the step only uses the block size
+	 * @return the event to commit when the step is done
+	 */
+	private static StageEvent begin(ITransformation transformation, String stage, int height, int width, int blockSize, int[] parameterValues) {
+		StageEvent event = new StageEvent();
+		if (event.isEnabled()) {
+			event.transformation = transformation.toString();
+			event.stage = stage;
+			event.height = height;
+			event.width = width;
+			event.blockSize = blockSize;
+			
+			// the parameter values the step uses as name=value pairs, never the fields the sliders may have changed since the step read them
+			if (parameterValues == null) {
+				event.parameters = "blockSize=" + blockSize;
+			} else {
+				StringBuilder parameters = new StringBuilder();
+				String[] parameterNames = transformation.getParameterNames();
+				for (int i = 0; i < parameterNames.length; i ++) {
+					if (parameters.length() > 0) parameters.append(' ');
+					parameters.append(parameterNames[i]).append('=').append(parameterValues[i]);
+				}
+				event.parameters = parameters.toString();
+			}
+		}
+		event.begin();
+		return event;
+	}
+	
+	@Label("Transformation")
+	String transformation;
+	
+	@Label("Stage")
+	String stage;
+	
+	@Label("Width")
+	int width;
+	
+	@Label("Height")
+	int height;
+	
+	@Label("Block Size")
+	int blockSize;
+	
+	@Label("Parameters")
+	String parameters;
+	
+}
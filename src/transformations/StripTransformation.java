@@ -0,0 +1,148 @@
+package transformations;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Transforms an image with a block transformation in strips of pixel columns, for images too large to hold in memory, e.g. gigapixel scans.
+ * The image is read twice: the first pass accumulates the statistics of every block strip by strip, the second pass interpolates each strip
+ * with the mapping functions calculated from the statistics and hands it to the sink. Only one strip of original and one strip of transformed
+ * brightness values are held at a time, besides the block histograms and mapping functions, whose size depends on the block size and not on the image size.
+ * The transformed brightness values are identical to the transformation of the whole image.
+ * @author JLepere2
+ * @date 05/16/2018
+ */
+public class StripTransformation {
+
+	/**
+	 * Reads strips of brightness values of an image.
+	 */
+	public interface StripSource {
+		
+		/**
+		 * Reads a strip of pixel columns.
+		 * @param startC the first pixel column of the strip
+		 * @param strip the brightness values of the strip to set, indexed by pixel column from startC and pixel row
+		 * @throws IOException if the strip could not be read
+		 */
+		public void read(int startC, int[][] strip) throws IOException;
+		
+	}
+	
+	/**
+	 * Writes strips of transformed brightness values of an image.
+	 */
+	public interface StripSink {
+		
+		/**
+		 * Writes a strip of pixel columns.
+		 * @param startC the first pixel column of the strip
+		 * @param newStrip the transformed brightness values of the strip, overwritten by the next strip
+		 * @throws IOException if the strip could not be written
+		 */
+		public void write(int startC, int[][] newStrip) throws IOException;
+		
+	}
+	
+	/**
+	 * Creates a strip transformation.
+	 * @param transformation the block transformation with its parameters
+	 * @param stripHeight the number of pixel columns per strip
+	 */
+	public StripTransformation(ABlockTransformation transformation, int stripHeight) {
+		if (stripHeight < 1) throw new IllegalArgumentException("Strip height must be positive");
+		this.transformation = transformation;
+		this.stripHeight = stripHeight;
+	}
+	
+	/**
+	 * Transforms an image strip by strip.
+	 * @param numPixelsCol the number of pixel columns of the image, its height
+	 * @param numPixelsRow the number of pixel rows of the image, its width
+	 * @param source reads the strips of the image, twice
+	 * @param sink writes the transformed strips, in order
+	 * @throws IOException if a strip could not be read or written
+	 */
+	public void transform(int numPixelsCol, int numPixelsRow, StripSource source, StripSink sink) throws IOException {
+		transform(numPixelsCol, numPixelsRow, ATransformation.hsbBrightnessMaxIntValue, source, sink);
+	}
+	
+	/**
+	 * Transforms an image of a higher bit depth than the brightness values strip by strip, keeping the full precision of its values, see BinCompression.
+	 * @param numPixelsCol the number of pixel columns of the image, its height
+	 * @param numPixelsRow the number of pixel rows of the image, its width
+	 * @param maxValue the maximum value of the image, e.g. 65535 for 16 bit samples
+	 * @param source reads the strips of values of the image, twice
+	 * @param sink writes the transformed strips of values, in order
+	 * @throws IOException if a strip could not be read or written
+	 */
+	public void transform(int numPixelsCol, int numPixelsRow, int maxValue, StripSource source, StripSink sink) throws IOException {
+		
+		// values at the precision of the bins are neither compressed nor interpolated between bins
+		BinCompression compression = (maxValue == ATransformation.hsbBrightnessMaxIntValue) ? null : new BinCompression(maxValue, ATransformation.hsbBrightnessMaxIntValue);
+		
+		// -- STEP 1 : Image Decomposition -- //
+		
+		// the grid from the size of the image, its brightness values are only read strip by strip
+		int blockSize = transformation.blockSize;
+		StageEvent event = StageEvent.begin(transformation, "decomposition", numPixelsCol, numPixelsRow, blockSize);
+		BlockGrid grid = BlockGrid.getGrid(numPixelsCol, numPixelsRow, blockSize, blockSize);
+		event.commit();
+		
+		// the strip buffers, reused for every strip
+		int[][] strip = new int[Math.min(stripHeight, numPixelsCol)][numPixelsRow];
+		int[][] newStrip = new int[strip.length][numPixelsRow];
+		int[][] binStrip = (compression == null) ? strip : new int[strip.length][numPixelsRow];
+		
+		
+		// -- STEP 2 : Histogram Calculations, first pass -- //
+		
+		event = StageEvent.begin(transformation, "histograms", grid, blockSize);
+		BlockStatistics statistics = new BlockStatistics(grid, ATransformation.hsbBrightnessMaxIntValue, transformation.withDeviation);
+		for (int startC = 0; startC < numPixelsCol; startC += stripHeight) {
+			int length = Math.min(stripHeight, numPixelsCol - startC);
+			int[][] rows = rows(strip, length);
+			source.read(startC, rows);
+			if (compression != null) rows = compression.compress(rows, rows(binStrip, length));
+			statistics.add(rows, startC, transformation.parallel);
+		}
+		statistics.complete();
+		event.commit();
+		
+		
+		// -- STEPS 3 and 4 : Mapping Functions -- //
+		
+		int[][][] mappingsPerBlock = transformation.getMappingsPerBlock(statistics, grid, blockSize);
+		
+		
+		// STEP 5 - Bilinear Interpolation, second pass -- //
+		
+		event = StageEvent.begin(transformation, "interpolation", grid, blockSize);
+		for (int startC = 0; startC < numPixelsCol; startC += stripHeight) {
+			int length = Math.min(stripHeight, numPixelsCol - startC);
+			int[][] rows = rows(strip, length);
+			int[][] newRows = rows(newStrip, length);
+			source.read(startC, rows);
+			if (compression == null) BilinearInterpolation.interpolateStrip(rows, startC, mappingsPerBlock, grid, transformation.parallel, transformation.fixedPoint, newRows);
+			else compression.interpolateStrip(rows, startC, mappingsPerBlock, grid, transformation.parallel, transformation.fixedPoint, newRows);
+			sink.write(startC, newRows);
+		}
+		event.commit();
+		
+	}
+	
+	/**
+	 * Gets the first pixel columns of a strip buffer, for the last strip of an image.
+	 * @param strip the strip buffer
+	 * @param length the number of pixel columns
+	 * @return the strip buffer, or an array of its first pixel columns
+	 */
+	private static int[][] rows(int[][] strip, int length) {
+		return (length == strip.length) ? strip : Arrays.copyOf(strip, length);
+	}
+	
+	// the transformation and the number of pixel columns per strip
+	private final ABlockTransformation transformation;
+	private final int stripHeight;
+	
+}
@@ -0,0 +1,41 @@
+package transformations;
+
+/**
+ * Creates transformations by name for running without the user interface.
+ * @author JLepere2
+ * @date 05/10/2018
+ */
+public class Transformations {
+
+	/**
+	 * Creates a headless transformation from its name.
+	 * @param name the name of the transformation, as returned by its toString
+	 * @param hsbImage the original image in hsb format
+	 * @return the transformation
+	 */
+	public static ITransformation create(String name, float[][][] hsbImage) {
+		switch (name) {
+			case "Original Image": return new NoTransformation(hsbImage, null);
+			case "Histogram Equalization": return new HistogramEqualization(hsbImage, null);
+			case "CLAHE": return new CLAHE(hsbImage, null);
+			case "ACLAHE": return new ACLAHE(hsbImage, null);
+			case "ACLAHEwDGC": return new ACLAHEwDGC(hsbImage, null);
+			case "ACLAHEwDGC2": return new ACLAHEwDGC2(hsbImage, null);
+			case "Sliding Window CLAHE": return new SlidingWindowCLAHE(hsbImage, null);
+			case "Sliding Window ACLAHEwDGC": return new SlidingWindowACLAHEwDGC(hsbImage, null);
+			default: throw new IllegalArgumentException("Unknown transformation: " + name);
+		}
+	}
+	
+	public static final String[] names = new String[] {
+		"Original Image",
+		"Histogram Equalization",
+		"CLAHE",
+		"ACLAHE",
+		"ACLAHEwDGC",
+		"ACLAHEwDGC2",
+		"Sliding Window CLAHE",
+		"Sliding Window ACLAHEwDGC"
+	};
+	
+}
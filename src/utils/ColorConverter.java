@@ -0,0 +1,165 @@
+package utils;
+
+/**
+ * Batch conversion between RGB and HSB for whole rows of pixels, with results identical to Color.RGBtoHSB and Color.HSBtoRGB.
+ * The conversions write into existing arrays instead of allocating per pixel, take the maximum and minimum
+ * channels without branches, and select the hue sector and the RGB components with table lookups instead of switches,
+ * so the loops are short and free of unpredictable branches.
+ * The integer conversions skip HSB entirely: the brightness is the maximum channel, and a new brightness scales the channels,
+ * which keeps the hue and saturation. They give the same brightness values, and pixels within 1 per channel of the HSB conversions.
+ * @author JLepere2
+ * @date 05/15/2018
+ */
+public class ColorConverter {
+
+	/**
+	 * Converts a row of RGB pixels to HSB, as Color.RGBtoHSB.
+	 * @param rgb the pixels with red, green and blue in the lowest 24 bits
+	 * @param hsb the hue, saturation and brightness arrays to set for each pixel
+	 * @param count the number of pixels to convert
+	 */
+	public static void rgbToHsb(int[] rgb, float[][] hsb, int count) {
+		for (int i = 0; i < count; i ++) {
+			
+			// red, green and blue values
+			int r = (rgb[i] >> 16) & 0xFF;
+			int g = (rgb[i] >> 8) & 0xFF;
+			int b = rgb[i] & 0xFF;
+			
+			// maximum and minimum channel
+			int cmax = Math.max(Math.max(r, g), b);
+			int cmin = Math.min(Math.min(r, g), b);
+			
+			// brightness and saturation, a black pixel has no saturation
+			float brightness = ((float) cmax) / 255.0f;
+			float saturation = (cmax != 0) ? ((float) (cmax - cmin)) / ((float) cmax) : 0;
+			
+			// hue from the distances of the channels to the maximum, a gray pixel has no hue
+			float range = (float) (cmax - cmin);
+			float redc = ((float) (cmax - r)) / range;
+			float greenc = ((float) (cmax - g)) / range;
+			float bluec = ((float) (cmax - b)) / range;
+			float hue = (r == cmax) ? bluec - greenc : (g == cmax) ? 2.0f + redc - bluec : 4.0f + greenc - redc;
+			hue = hue / 6.0f;
+			if (hue < 0) hue = hue + 1.0f;
+			if (saturation == 0) hue = 0;
+			
+			// set the hsb values of the pixel
+			float[] pixel = hsb[i];
+			pixel[0] = hue;
+			pixel[1] = saturation;
+			pixel[2] = brightness;
+		}
+	}
+	
+	/**
+	 * Converts a row of pixels to RGB, as Color.HSBtoRGB, with the hue and saturation of the original pixels and new brightness values.
+	 * @param hsb the hue and saturation of each pixel
+	 * @param brightness the new brightness value of each pixel, between 0 and hsbBrightnessMaxIntValue
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value used to normalize brightness between 0.0 and 1.0
+	 * @param rgb the opaque RGB pixels to set
+	 * @param offset the index in rgb of the first pixel
+	 * @param count the number of pixels to convert
+	 */
+	public static void hsbToRgb(float[][] hsb, int[] brightness, int hsbBrightnessMaxIntValue, int[] rgb, int offset, int count) {
+		
+		// the value, q, p and t components of the current pixel, selected per sector, and black
+		float[] components = new float[5];
+		
+		for (int i = 0; i < count; i ++) {
+			
+			// hue, saturation and brightness values
+			float hue = hsb[i][0];
+			float saturation = hsb[i][1];
+			float value = (brightness[i] / ((float) (hsbBrightnessMaxIntValue)));
+			
+			// sector of the hue and position in the sector
+			float h = (hue - (float) Math.floor(hue)) * 6.0f;
+			float f = h - (float) Math.floor(h);
+			int sector = (int) h;
+			
+			// without saturation p, q and t all equal the value, so gray pixels need no special case
+			components[0] = value;
+			components[1] = value * (1.0f - saturation * f);
+			components[2] = value * (1.0f - saturation);
+			components[3] = value * (1.0f - (saturation * (1.0f - f)));
+			
+			// select and round the components of the sector
+			int r = (int) (components[RED[sector]] * 255.0f + 0.5f);
+			int g = (int) (components[GREEN[sector]] * 255.0f + 0.5f);
+			int b = (int) (components[BLUE[sector]] * 255.0f + 0.5f);
+			rgb[offset + i] = 0xff000000 | (r << 16) | (g << 8) | b;
+		}
+	}
+	
+	/**
+	 * Tabulates the brightness value of each maximum channel, normalized as by rgbToHsb and Utilities.hsbBrightnessExtractor.
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value
+	 * @return the brightness value indexed by the maximum channel
+	 */
+	public static int[] brightnessTable(int hsbBrightnessMaxIntValue) {
+		int[] table = new int[256];
+		for (int cmax = 0; cmax < 256; cmax ++) {
+			float brightness = ((float) cmax) / 255.0f;
+			table[cmax] = (int) (brightness * hsbBrightnessMaxIntValue);
+		}
+		return table;
+	}
+	
+	/**
+	 * Gets the brightness values of a row of RGB pixels with integer arithmetic only.
+	 * @param rgb the pixels with red, green and blue in the lowest 24 bits
+	 * @param offset the index in rgb of the first pixel
+	 * @param brightnessTable the brightness value of each maximum channel, see brightnessTable
+	 * @param brightness the brightness values to set
+	 * @param count the number of pixels
+	 */
+	public static void rgbToBrightness(int[] rgb, int offset, int[] brightnessTable, int[] brightness, int count) {
+		for (int i = 0; i < count; i ++) {
+			int pixel = rgb[offset + i];
+			
+			// maximum channel
+			int cmax = Math.max(Math.max((pixel >> 16) & 0xFF, (pixel >> 8) & 0xFF), pixel & 0xFF);
+			brightness[i] = brightnessTable[cmax];
+		}
+	}
+	
+	/**
+	 * Converts a row of RGB pixels to new brightness values with integer arithmetic only, scaling each channel by the ratio of the new
+	 * brightness to the maximum channel. The ratios between the channels are kept, so are the hue and saturation, as by hsbToRgb.
+	 * @param rgb the original pixels with red, green and blue in the lowest 24 bits
+	 * @param offset the index in rgb of the first pixel
+	 * @param brightness the new brightness value of each pixel, between 0 and hsbBrightnessMaxIntValue
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value
+	 * @param newRgb the opaque RGB pixels to set
+	 * @param newOffset the index in newRgb of the first pixel
+	 * @param count the number of pixels to convert
+	 */
+	public static void scaleRgb(int[] rgb, int offset, int[] brightness, int hsbBrightnessMaxIntValue, int[] newRgb, int newOffset, int count) {
+		for (int i = 0; i < count; i ++) {
+			int pixel = rgb[offset + i];
+			
+			// red, green and blue values and the maximum channel, a black pixel scales as gray
+			int r = (pixel >> 16) & 0xFF;
+			int g = (pixel >> 8) & 0xFF;
+			int b = pixel & 0xFF;
+			int cmax = Math.max(Math.max(r, g), b);
+			if (cmax == 0) r = g = b = cmax = 1;
+			
+			// channel * (new brightness / hsbBrightnessMaxIntValue * 255) / cmax, rounded
+			long numerator = 2L * brightness[i] * 255;
+			long denominator = 2L * cmax * hsbBrightnessMaxIntValue;
+			int newR = (int) ((r * numerator + cmax * (long) hsbBrightnessMaxIntValue) / denominator);
+			int newG = (int) ((g * numerator + cmax * (long) hsbBrightnessMaxIntValue) / denominator);
+			int newB = (int) ((b * numerator + cmax * (long) hsbBrightnessMaxIntValue) / denominator);
+			newRgb[newOffset + i] = 0xff000000 | (newR << 16) | (newG << 8) | newB;
+		}
+	}
+	
+	// the component (value, q, p or t) of red, green and blue for each hue sector,
+	// sector 6 only happens when a hue just below 0 rounds up to 1 and is black as in Color.HSBtoRGB
+	private static final int[] RED = new int[] {0, 1, 2, 2, 3, 0, 4};
+	private static final int[] GREEN = new int[] {3, 0, 0, 1, 2, 2, 4};
+	private static final int[] BLUE = new int[] {2, 2, 3, 0, 0, 1, 4};
+	
+}
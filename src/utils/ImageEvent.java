@@ -0,0 +1,59 @@
+package utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder event for loading an image into an HSB matrix or rendering an HSB matrix into a buffered image.
+ * @author JLepere2
+ * @date 05/15/2018
+ */
+@Name("utils.Image")
+@Label("Image Load or Render")
+@Category({"ACLAHEwDGC", "Images"})
+@Description("Loading or rendering of an image")
+public class ImageEvent extends Event {
+
+	/**
+	 * Begins the event for loading, extracting the brightness of or rendering an image.
+	 * @param operation load, extract or render
+	 * @param source the loaded file or resource, empty when extracting or rendering
+	 * @return the event to commit with the image size when done
+	 */
+	public static ImageEvent begin(String operation, String source) {
+		ImageEvent event = new ImageEvent();
+		if (event.isEnabled()) {
+			event.operation = operation;
+			event.source = source;
+		}
+		event.begin();
+		return event;
+	}
+	
+	/**
+	 * Commits the event with the size of the image.
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 */
+	public void commit(int width, int height) {
+		this.width = width;
+		this.height = height;
+		commit();
+	}
+	
+	@Label("Operation")
+	String operation;
+	
+	@Label("Source")
+	String source;
+	
+	@Label("Width")
+	int width;
+	
+	@Label("Height")
+	int height;
+	
+}
@@ -0,0 +1,357 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary PGM (P5) or PPM (P6) image, or a raw image without header, memory mapped from its file.
+ * Samples have 8 bits for a maximum value below 256 and 16 bits otherwise, and are read and written directly in the mapped file,
+ * so brightness values are extracted from and transformed pixels are written to the file without decoding the image into heap objects.
+ * Files larger than a single mapping are mapped in segments of whole rows.
+ * @author JLepere2
+ * @date 05/16/2018
+ */
+public class MappedImage implements Closeable {
+
+	/**
+	 * Opens a PGM or PPM image for reading.
+	 * @param file the image file
+	 * @return the mapped image
+	 * @throws IOException if the file could not be read or is not a binary PGM or PPM image
+	 */
+	public static MappedImage open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			// the header is at most a few lines, comments included
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), MAX_HEADER_LENGTH));
+			String magic = nextToken(header);
+			int channels;
+			if (magic.equals("P5")) channels = 1;
+			else if (magic.equals("P6")) channels = 3;
+			else throw new IOException(file.getName() + " is not a binary PGM or PPM image");
+			int width = Integer.parseInt(nextToken(header));
+			int height = Integer.parseInt(nextToken(header));
+			int maxValue = Integer.parseInt(nextToken(header));
+			
+			// a single whitespace separates the header from the samples
+			return new MappedImage(channel, FileChannel.MapMode.READ_ONLY, header.position() + 1, width, height, channels, maxValue, ByteOrder.BIG_ENDIAN);
+		} catch (NumberFormatException e) {
+			channel.close();
+			throw new IOException(file.getName() + " has an invalid header", e);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Opens a raw image without header for reading.
+	 * @param file the image file
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param channels 1 for gray and 3 for rgb samples
+	 * @param maxValue the maximum sample value, 8 bit samples below 256 and 16 bit samples otherwise
+	 * @param byteOrder the byte order of 16 bit samples
+	 * @return the mapped image
+	 * @throws IOException if the file could not be read or is too small
+	 */
+	public static MappedImage openRaw(File file, int width, int height, int channels, int maxValue, ByteOrder byteOrder) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			return new MappedImage(channel, FileChannel.MapMode.READ_ONLY, 0, width, height, channels, maxValue, byteOrder);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Creates a PGM or PPM image for writing, replacing an existing file.
+	 * @param file the image file
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param channels 1 for a PGM and 3 for a PPM image
+	 * @param maxValue the maximum sample value
+	 * @return the mapped image
+	 * @throws IOException if the file could not be created
+	 */
+	public static MappedImage create(File file, int width, int height, int channels, int maxValue) throws IOException {
+		byte[] header = ((channels == 1 ? "P5" : "P6") + "\n" + width + " " + height + "\n" + maxValue + "\n").getBytes(StandardCharsets.US_ASCII);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			MappedImage image = new MappedImage(channel, FileChannel.MapMode.READ_WRITE, header.length, width, height, channels, maxValue, ByteOrder.BIG_ENDIAN);
+			channel.map(FileChannel.MapMode.READ_WRITE, 0, header.length).put(header);
+			return image;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Creates a raw image without header for writing, replacing an existing file.
+	 * @param file the image file
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param channels 1 for gray and 3 for rgb samples
+	 * @param maxValue the maximum sample value, 8 bit samples below 256 and 16 bit samples otherwise
+	 * @param byteOrder the byte order of 16 bit samples
+	 * @return the mapped image
+	 * @throws IOException if the file could not be created
+	 */
+	public static MappedImage createRaw(File file, int width, int height, int channels, int maxValue, ByteOrder byteOrder) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			return new MappedImage(channel, FileChannel.MapMode.READ_WRITE, 0, width, height, channels, maxValue, byteOrder);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Maps the samples of an image.
+	 * @param channel the channel of the file
+	 * @param mode read only or read write
+	 * @param offset the position of the first sample in the file
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param channels 1 for gray and 3 for rgb samples
+	 * @param maxValue the maximum sample value
+	 * @param byteOrder the byte order of 16 bit samples
+	 * @throws IOException if the file could not be mapped or is too small
+	 */
+	private MappedImage(FileChannel channel, FileChannel.MapMode mode, long offset, int width, int height, int channels, int maxValue, ByteOrder byteOrder) throws IOException {
+		if (width < 1 || height < 1 || (channels != 1 && channels != 3) || maxValue < 1 || maxValue > 65535) throw new IOException("Unsupported image: " + width + "x" + height + ", " + channels + " channels, maximum value " + maxValue);
+		this.channel = channel;
+		this.width = width;
+		this.height = height;
+		this.channels = channels;
+		this.maxValue = maxValue;
+		bytesPerSample = (maxValue < 256) ? 1 : 2;
+		rowLength = (long) width * channels * bytesPerSample;
+		if (rowLength > MAX_SEGMENT_LENGTH) throw new IOException("Rows of " + rowLength + " bytes are too long to map");
+		if (mode == FileChannel.MapMode.READ_ONLY && channel.size() < offset + rowLength * height) throw new IOException("The file is smaller than a " + width + "x" + height + " image");
+		
+		// segments of whole rows
+		rowsPerSegment = (int) Math.min(height, MAX_SEGMENT_LENGTH / rowLength);
+		segments = new MappedByteBuffer[(height + rowsPerSegment - 1) / rowsPerSegment];
+		for (int segment = 0; segment < segments.length; segment ++) {
+			int rows = Math.min(rowsPerSegment, height - segment * rowsPerSegment);
+			segments[segment] = channel.map(mode, offset + segment * rowsPerSegment * rowLength, rows * rowLength);
+			segments[segment].order(byteOrder);
+		}
+		writable = (mode == FileChannel.MapMode.READ_WRITE);
+	}
+	
+	/**
+	 * Gets the brightness value of each pixel, the maximum of its channels normalized to hsbBrightnessMaxIntValue
+	 * as the HSB brightness of Utilities.hsbBrightnessExtractor.
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value
+	 * @return the brightness values indexed by row and column
+	 */
+	public int[][] getBrightnessValues(int hsbBrightnessMaxIntValue) {
+		return getBrightnessValues(hsbBrightnessMaxIntValue, 0, new int[height][width]);
+	}
+	
+	/**
+	 * Gets the brightness values of consecutive rows, e.g. of a strip of an image too large to hold in memory.
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value
+	 * @param startRow the first row
+	 * @param hsbBrightnessValues the brightness values of the rows to set, indexed by row from startRow and column
+	 * @return the brightness values of the rows
+	 */
+	public int[][] getBrightnessValues(int hsbBrightnessMaxIntValue, int startRow, int[][] hsbBrightnessValues) {
+		for (int row = 0; row < hsbBrightnessValues.length; row ++) {
+			int y = startRow + row;
+			MappedByteBuffer segment = segments[y / rowsPerSegment];
+			int position = (int) ((y % rowsPerSegment) * rowLength);
+			int[] pixels = hsbBrightnessValues[row];
+			for (int x = 0; x < width; x ++) {
+				// maximum of the channels
+				int cmax = 0;
+				for (int c = 0; c < channels; c ++) {
+					cmax = Math.max(cmax, sample(segment, position));
+					position += bytesPerSample;
+				}
+				
+				// normalized brightness
+				float brightness = ((float) cmax) / maxValue;
+				pixels[x] = (int) (brightness * hsbBrightnessMaxIntValue);
+			}
+		}
+		return hsbBrightnessValues;
+	}
+	
+	/**
+	 * Gets the value of each pixel of consecutive rows at the full precision of the samples, the maximum of its channels from 0 to the maximum value.
+	 * @param startRow the first row
+	 * @param values the values of the rows to set, indexed by row from startRow and column
+	 * @return the values of the rows
+	 */
+	public int[][] getValues(int startRow, int[][] values) {
+		for (int row = 0; row < values.length; row ++) {
+			int y = startRow + row;
+			MappedByteBuffer segment = segments[y / rowsPerSegment];
+			int position = (int) ((y % rowsPerSegment) * rowLength);
+			int[] pixels = values[row];
+			for (int x = 0; x < width; x ++) {
+				// maximum of the channels
+				int cmax = 0;
+				for (int c = 0; c < channels; c ++) {
+					cmax = Math.max(cmax, sample(segment, position));
+					position += bytesPerSample;
+				}
+				pixels[x] = cmax;
+			}
+		}
+		return values;
+	}
+	
+	/**
+	 * Writes the pixels of a source image of the same size with new brightness values. Gray pixels are set to the new brightness,
+	 * color channels are scaled by the ratio of the new to the old brightness, which keeps the hue and saturation as the HSB conversion does.
+	 * New values at the full precision of the samples are written with the maximum value as the maximum brightness value.
+	 * @param source the image with the original pixels, with the same number of channels
+	 * @param newBrightnessValues the new brightness values indexed by row and column
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value
+	 */
+	public void setPixels(MappedImage source, int[][] newBrightnessValues, int hsbBrightnessMaxIntValue) {
+		setPixels(source, newBrightnessValues, hsbBrightnessMaxIntValue, 0);
+	}
+	
+	/**
+	 * Writes consecutive rows of the pixels of a source image of the same size with new brightness values, as setPixels.
+	 * @param source the image with the original pixels, with the same number of channels
+	 * @param newBrightnessValues the new brightness values of the rows indexed by row from startRow and column
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value
+	 * @param startRow the first row
+	 */
+	public void setPixels(MappedImage source, int[][] newBrightnessValues, int hsbBrightnessMaxIntValue, int startRow) {
+		if (!writable) throw new IllegalStateException("The image is not open for writing");
+		if (source.width != width || source.height != height || source.channels != channels) throw new IllegalArgumentException("The source image has a different size");
+		for (int row = 0; row < newBrightnessValues.length; row ++) {
+			int y = startRow + row;
+			MappedByteBuffer sourceSegment = source.segments[y / source.rowsPerSegment];
+			int sourcePosition = (int) ((y % source.rowsPerSegment) * source.rowLength);
+			MappedByteBuffer segment = segments[y / rowsPerSegment];
+			int position = (int) ((y % rowsPerSegment) * rowLength);
+			int[] newPixels = newBrightnessValues[row];
+			for (int x = 0; x < width; x ++) {
+				// new maximum channel value
+				double target = (newPixels[x] / ((double) hsbBrightnessMaxIntValue)) * maxValue;
+				
+				// old maximum channel value
+				int cmax = 0;
+				for (int c = 0; c < channels; c ++) cmax = Math.max(cmax, source.sample(sourceSegment, sourcePosition + c * source.bytesPerSample));
+				
+				// scale the channels, a black pixel becomes gray
+				for (int c = 0; c < channels; c ++) {
+					int value = source.sample(sourceSegment, sourcePosition);
+					int newValue = (cmax == 0) ? (int) (target + 0.5) : (int) (value * target / cmax + 0.5);
+					setSample(segment, position, Math.min(maxValue, newValue));
+					sourcePosition += source.bytesPerSample;
+					position += bytesPerSample;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads a sample.
+	 * @param segment the segment of the sample
+	 * @param position the position of the sample in the segment
+	 * @return the sample value
+	 */
+	private int sample(MappedByteBuffer segment, int position) {
+		return (bytesPerSample == 1) ? segment.get(position) & 0xFF : segment.getShort(position) & 0xFFFF;
+	}
+	
+	/**
+	 * Writes a sample.
+	 * @param segment the segment of the sample
+	 * @param position the position of the sample in the segment
+	 * @param value the sample value
+	 */
+	private void setSample(MappedByteBuffer segment, int position, int value) {
+		if (bytesPerSample == 1) segment.put(position, (byte) value);
+		else segment.putShort(position, (short) value);
+	}
+	
+	/**
+	 * Reads the next whitespace separated token of a header, skipping comments.
+	 * @param header the header, positioned after the previous token
+	 * @return the token
+	 * @throws IOException if the header ends before the token
+	 */
+	private static String nextToken(MappedByteBuffer header) throws IOException {
+		StringBuilder token = new StringBuilder();
+		while (header.hasRemaining()) {
+			char character = (char) header.get();
+			if (character == '#' && token.length() == 0) {
+				// comment until the end of the line
+				while (header.hasRemaining() && header.get() != '\n');
+			} else if (Character.isWhitespace(character)) {
+				if (token.length() > 0) {
+					// leave the whitespace after the token to be skipped by the caller
+					header.position(header.position() - 1);
+					return token.toString();
+				}
+			} else {
+				token.append(character);
+			}
+		}
+		throw new IOException("Incomplete header");
+	}
+	
+	/**
+	 * Writes the mapped samples of a writable image to the file and closes it.
+	 */
+	public void close() throws IOException {
+		if (writable) {
+			for (MappedByteBuffer segment : segments) segment.force();
+		}
+		channel.close();
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	public int getChannels() {
+		return channels;
+	}
+	
+	public int getMaxValue() {
+		return maxValue;
+	}
+	
+	// the file and its mapped rows
+	private final FileChannel channel;
+	private final MappedByteBuffer[] segments;
+	private final int rowsPerSegment;
+	private final long rowLength;
+	private final boolean writable;
+	
+	// the image format
+	private final int width;
+	private final int height;
+	private final int channels;
+	private final int maxValue;
+	private final int bytesPerSample;
+	
+	// the longest header read and the largest mapping
+	private static final long MAX_HEADER_LENGTH = 1024;
+	private static final long MAX_SEGMENT_LENGTH = 1 << 30;
+	
+}
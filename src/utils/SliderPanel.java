@@ -65,6 +65,14 @@ public class SliderPanel extends JPanel {
 		return currentValue;
 	}
 	
+	/**
+	 * Gets whether the slider is being dragged.
+	 * @return true while the user drags the slider, false once it settles
+	 */
+	public boolean getValueIsAdjusting() {
+		return valueSlider.getValueIsAdjusting();
+	}
+	
 	/**
 	 * Add a change listener to this slider
 	 * @param l the change listener
@@ -1,9 +1,17 @@
 package utils;
-import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorConvertOp;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
 import javax.swing.JFileChooser;
@@ -25,90 +33,336 @@ public class Utilities {
 	 * @return
 	 */
 	public static BufferedImage createBufferedImage(float[][][] hsbImage, int[][] newBrightnessValues, int hsbBrightnessMaxIntValue) {
+		return createBufferedImage(hsbImage, newBrightnessValues, hsbBrightnessMaxIntValue, null, false);
+	}
+	
+	/**
+	 * Gets a buffered image from the modified brightness values, writing the pixels directly into the data buffer of the image.
+	 * The rows are independent, so in parallel they are converted in stripes on the fork/join pool. The pixels are the same as
+	 * setting each pixel with setRGB.
+	 * @param hsbImage the original hsb image
+	 * @param newBrightnessValues the new brightness values
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value used to normalize brightness between 0.0 and 1.0
+	 * @param reuse an image to overwrite, used if it is a TYPE_INT_ARGB image of the same size and not a sub image, may be null.
+	 * Must not be displayed or cached while it is reused.
+	 * @param parallel true to convert the rows concurrently
+	 * @return the reused image, or a new image
+	 */
+	public static BufferedImage createBufferedImage(float[][][] hsbImage, int[][] newBrightnessValues, int hsbBrightnessMaxIntValue, BufferedImage reuse, boolean parallel) {
 		
-		// buffered image for the image
-		BufferedImage buffImage = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		// flight recorder event of the rendering
+		ImageEvent event = ImageEvent.begin("render", "");
 		
-		for (int y = 0; y < IMAGE_SIZE; y ++) {
-			for (int x = 0; x < IMAGE_SIZE; x ++) {
-				
-				// get original hsb
-				float[] hsb = hsbImage[y][x];
-				
-				// hue, saturation and brightness values
-				float hue = hsb[0];
-				float saturation = hsb[1];
-				float brightness = (newBrightnessValues[y][x] / ((float) (hsbBrightnessMaxIntValue)));
-				
-				// get rgb from hsb
-				int rgb = Color.HSBtoRGB(hue, saturation, brightness);
-				
-				// set buffered image
-				buffImage.setRGB(x, y, rgb);
+		// image dimensions
+		int height = hsbImage.length;
+		int width = (height == 0) ? 0 : hsbImage[0].length;
+		
+		// buffered image for the image, the reused image if it has the same layout
+		BufferedImage buffImage = reuse;
+		if (buffImage == null || buffImage.getType() != BufferedImage.TYPE_INT_ARGB || buffImage.getWidth() != width || buffImage.getHeight() != height
+				|| buffImage.getRaster().getSampleModelTranslateX() != 0 || buffImage.getRaster().getSampleModelTranslateY() != 0) {
+			buffImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		}
+		
+		// the pixels of the image, a row starts every scanline stride
+		WritableRaster raster = buffImage.getRaster();
+		int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+		int scanlineStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+		
+		// stripes of rows, several per thread to balance the load
+		int stripes = parallel ? Math.max(1, Math.min(height, TASKS_PER_THREAD * ForkJoinPool.getCommonPoolParallelism())) : 1;
 				
+		IntStream stripeIndices = IntStream.range(0, stripes);
+		if (parallel) stripeIndices = stripeIndices.parallel();
+		stripeIndices.forEach(stripe -> {
+			int startY = (int) (((long) stripe * height) / stripes);
+			int endY = (int) (((long) (stripe + 1) * height) / stripes);
+			for (int y = startY; y < endY; y ++) {
+				// get rgb from the original hue and saturation and the new brightness, straight into the row of the image
+				ColorConverter.hsbToRgb(hsbImage[y], newBrightnessValues[y], hsbBrightnessMaxIntValue, pixels, y * scanlineStride, width);
 			}
-		}
+		});
 		
+		event.commit(width, height);
 		return buffImage;
 	}
 	
 	/**
-	 * Gets an HSB matrix from the image
+	 * Gets an HSB matrix from the image, resampled to the display size of the application
 	 * @param imageName the name of the image to load
 	 * @return an HSB matrix of the default image
 	 */
 	public static float[][][] getImage(String imageName) {
 		
-		// matrix to hold the the hsb values
-		float[][][] hsbMatrix = new float[IMAGE_SIZE][IMAGE_SIZE][3];
-		
-		// buffered image from IO read
-		BufferedImage image;
 		try {
 			
 			// load the default image
-			image = ImageIO.read(Utilities.class.getResourceAsStream(imageName));
+			ImageEvent event = ImageEvent.begin("load", imageName);
+			float[][][] hsbImage = getImage(ImageIO.read(Utilities.class.getResourceAsStream(imageName)), IMAGE_SIZE, IMAGE_SIZE);
+			event.commit(IMAGE_SIZE, IMAGE_SIZE);
+			return hsbImage;
 			
-			// image parameters
-			int loadedImageHeight = image.getHeight();
-			int loadedImageWidth = image.getWidth();
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		
+		// matrix to hold the the hsb values
+		return new float[IMAGE_SIZE][IMAGE_SIZE][3];
+		
+	}
+	
+	/**
+	 * Gets an HSB matrix from an image file at its native resolution
+	 * @param imageFile the image file to load
+	 * @return an HSB matrix of the image
+	 * @throws IOException if the file could not be read as an image
+	 */
+	public static float[][][] getImage(File imageFile) throws IOException {
+		
+		// flight recorder event of the loading
+		ImageEvent event = ImageEvent.begin("load", imageFile.getPath());
+		
+		// buffered image from IO read
+		BufferedImage image = ImageIO.read(imageFile);
+		if (image == null) throw new IOException("Unsupported image format: " + imageFile);
+		
+		float[][][] hsbImage = getImage(image);
+		event.commit(image.getWidth(), image.getHeight());
+		return hsbImage;
+		
+	}
+	
+	/**
+	 * Gets an HSB matrix from a buffered image at its native resolution
+	 * @param image the buffered image
+	 * @return an HSB matrix of the image
+	 */
+	public static float[][][] getImage(BufferedImage image) {
+		return getImage(image, image.getWidth(), image.getHeight());
+	}
+	
+	/**
+	 * Gets an HSB matrix from a buffered image, nearest neighbor resampled to the given size
+	 * @param image the buffered image
+	 * @param width the width of the HSB matrix
+	 * @param height the height of the HSB matrix
+	 * @return an HSB matrix of the image
+	 */
+	public static float[][][] getImage(BufferedImage image, int width, int height) {
+		return getImage(image, new float[height][width][3]);
+	}
+	
+	/**
+	 * Gets an HSB matrix from a buffered image into an existing matrix, nearest neighbor resampled to the size of the matrix.
+	 * An rgb image is read directly, other images are converted to rgb first.
+	 * @param image the buffered image
+	 * @param hsbMatrix the HSB matrix to set
+	 * @return the HSB matrix
+	 */
+	public static float[][][] getImage(BufferedImage image, float[][][] hsbMatrix) {
+		
+		// dimensions of the hsb matrix
+		int height = hsbMatrix.length;
+		int width = (height == 0) ? 0 : hsbMatrix[0].length;
 			
-			// converts the image to rgb
-			BufferedImage loadedImage = new BufferedImage(loadedImageWidth, loadedImageHeight, BufferedImage.TYPE_INT_RGB);
-			ColorConvertOp op = new ColorConvertOp(image.getColorModel().getColorSpace(), loadedImage.getColorModel().getColorSpace(), null);
-		    op.filter(image, loadedImage);
+		// image parameters
+		int loadedImageHeight = image.getHeight();
+		int loadedImageWidth = image.getWidth();
+			
+		// converts the image to rgb, unless it already is
+		BufferedImage loadedImage = getRgbImage(image);
 		   
-		    // the ratio to multiple to the loaded image to get the new image spatial coordinates
-		 	double heightRatio = ((double) loadedImageHeight) / IMAGE_SIZE;
-		 	double widthRatio = ((double) loadedImageWidth) / IMAGE_SIZE;
+	    // the ratio to multiple to the loaded image to get the new image spatial coordinates
+	 	double heightRatio = ((double) loadedImageHeight) / height;
+	 	double widthRatio = ((double) loadedImageWidth) / width;
 		 	
-		 	// set the hsb matrix of the image
-			for (int y = 0; y < IMAGE_SIZE; y ++) {
-				for (int x = 0; x < IMAGE_SIZE; x ++) {
-					
-					// get the rgb values
-					int rgb = loadedImage.getRGB((int) (x * widthRatio), (int) (y * heightRatio));
-					int r = (rgb >> 16) & 0xFF;
-					int g = (rgb >> 8) & 0xFF;
-					int b = rgb & 0xFF;
+	 	// pixels of the loaded image and the loaded image column of each column of the new image
+	 	int[] loadedPixels = ((DataBufferInt) loadedImage.getRaster().getDataBuffer()).getData();
+	 	int[] loadedX = new int[width];
+	 	for (int x = 0; x < width; x ++) loadedX[x] = (int) (x * widthRatio);
+	 	
+	 	// rgb values of a row
+	 	int[] rgbRow = new int[width];
+	 	
+	 	// set the hsb matrix of the image
+		for (int y = 0; y < height; y ++) {
+			// get the rgb values
+			int loadedRowStart = ((int) (y * heightRatio)) * loadedImageWidth;
+			for (int x = 0; x < width; x ++) rgbRow[x] = loadedPixels[loadedRowStart + loadedX[x]];
 					
-					// convert rgb to hsv
-					float[] hsb = Color.RGBtoHSB(r, g, b, null);
-					
-					// set the matrix
-					hsbMatrix[y][x] = hsb;
-				}
-			}
-			
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			// convert rgb to hsv and set the matrix
+			ColorConverter.rgbToHsb(rgbRow, hsbMatrix[y], width);
 		}
 		
 		return hsbMatrix;
 		
 	}
 	
+	/**
+	 * Gets a buffered image as an rgb image whose pixels are packed in its data buffer, a row every width pixels.
+	 * @param image the buffered image
+	 * @return the image if it already is such an rgb image, else the image converted to rgb
+	 */
+	public static BufferedImage getRgbImage(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (image.getType() == BufferedImage.TYPE_INT_RGB && image.getRaster().getSampleModelTranslateX() == 0 && image.getRaster().getSampleModelTranslateY() == 0
+				&& ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride() == width) {
+			return image;
+		}
+		BufferedImage rgbImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		ColorConvertOp op = new ColorConvertOp(image.getColorModel().getColorSpace(), rgbImage.getColorModel().getColorSpace(), null);
+		op.filter(image, rgbImage);
+		return rgbImage;
+	}
+	
+	/**
+	 * Extracts the brightness of each pixel of an rgb image with integer arithmetic, without converting it to an HSB image matrix.
+	 * The brightness values are the same as hsbBrightnessExtractor of the HSB image matrix.
+	 * @param rgbImage the rgb image, see getRgbImage
+	 * @param hsbBrightnessMaxIntValue the maximum HSB as integer for histogram equalization
+	 * @param hsbBrightnessImage the matrix to set, of the size of the image
+	 * @return the HSB brightness for each pixel
+	 */
+	public static int[][] rgbBrightnessExtractor(BufferedImage rgbImage, int hsbBrightnessMaxIntValue, int[][] hsbBrightnessImage) {
+		
+		// flight recorder event of the extraction
+		ImageEvent event = ImageEvent.begin("extract", "");
+		
+		// the packed pixels of the image and the brightness of each maximum channel
+		int width = rgbImage.getWidth();
+		int height = rgbImage.getHeight();
+		int[] pixels = ((DataBufferInt) rgbImage.getRaster().getDataBuffer()).getData();
+		int[] brightnessTable = ColorConverter.brightnessTable(hsbBrightnessMaxIntValue);
+		
+		// extract and set brightnesses for each row
+		for (int y = 0; y < height; y ++) {
+			ColorConverter.rgbToBrightness(pixels, y * width, brightnessTable, hsbBrightnessImage[y], width);
+		}
+		
+		event.commit(width, height);
+		return hsbBrightnessImage;
+		
+	}
+	
+	/**
+	 * Gets a buffered image from the modified brightness values of an rgb image with integer arithmetic, scaling the channels of each pixel
+	 * by its new brightness instead of converting the HSB image matrix. The pixels are within 1 per channel of the HSB conversion.
+	 * @param rgbImage the original rgb image, see getRgbImage
+	 * @param newBrightnessValues the new brightness values
+	 * @param hsbBrightnessMaxIntValue the maximum brightness value used to normalize brightness between 0.0 and 1.0
+	 * @param reuse an image to overwrite, used if it is a TYPE_INT_ARGB image of the same size and not a sub image, may be null.
+	 * Must not be displayed or cached while it is reused.
+	 * @param parallel true to convert the rows concurrently
+	 * @return the reused image, or a new image
+	 */
+	public static BufferedImage createBufferedImage(BufferedImage rgbImage, int[][] newBrightnessValues, int hsbBrightnessMaxIntValue, BufferedImage reuse, boolean parallel) {
+		
+		// flight recorder event of the rendering
+		ImageEvent event = ImageEvent.begin("render", "");
+		
+		// image dimensions and the packed pixels of the rgb image
+		int width = rgbImage.getWidth();
+		int height = rgbImage.getHeight();
+		int[] rgbPixels = ((DataBufferInt) rgbImage.getRaster().getDataBuffer()).getData();
+		
+		// buffered image for the image, the reused image if it has the same layout
+		BufferedImage buffImage = reuse;
+		if (buffImage == null || buffImage.getType() != BufferedImage.TYPE_INT_ARGB || buffImage.getWidth() != width || buffImage.getHeight() != height
+				|| buffImage.getRaster().getSampleModelTranslateX() != 0 || buffImage.getRaster().getSampleModelTranslateY() != 0) {
+			buffImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		}
+		
+		// the pixels of the image, a row starts every scanline stride
+		WritableRaster raster = buffImage.getRaster();
+		int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+		int scanlineStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+		
+		// stripes of rows, several per thread to balance the load
+		int stripes = parallel ? Math.max(1, Math.min(height, TASKS_PER_THREAD * ForkJoinPool.getCommonPoolParallelism())) : 1;
+		
+		IntStream stripeIndices = IntStream.range(0, stripes);
+		if (parallel) stripeIndices = stripeIndices.parallel();
+		stripeIndices.forEach(stripe -> {
+			int startY = (int) (((long) stripe * height) / stripes);
+			int endY = (int) (((long) (stripe + 1) * height) / stripes);
+			for (int y = startY; y < endY; y ++) {
+				// scale the channels of the original row by the new brightness, straight into the row of the image
+				ColorConverter.scaleRgb(rgbPixels, y * width, newBrightnessValues[y], hsbBrightnessMaxIntValue, pixels, y * scanlineStride, width);
+			}
+		});
+		
+		event.commit(width, height);
+		return buffImage;
+	}
+	
+	/**
+	 * Reduces the resolution of an HSB image matrix by sampling every factor-th pixel in each dimension.
+	 * @param hsbImage the HSB image matrix
+	 * @param factor the reduction factor
+	 * @return the reduced HSB image matrix, sharing the pixel values of the image
+	 */
+	public static float[][][] reduceImage(float[][][] hsbImage, int factor) {
+		
+		// image dimensions, rounded up so every dimension keeps at least one pixel
+		int numPixelsCol = (hsbImage.length + factor - 1) / factor;
+		int numPixelsRow = (hsbImage.length == 0) ? 0 : (hsbImage[0].length + factor - 1) / factor;
+		
+		// sample the pixels
+		float[][][] reducedImage = new float[numPixelsCol][numPixelsRow][];
+		for (int c = 0; c < numPixelsCol; c ++) {
+			for (int r = 0; r < numPixelsRow; r ++) {
+				reducedImage[c][r] = hsbImage[c * factor][r * factor];
+			}
+		}
+		return reducedImage;
+		
+	}
+	
+	/**
+	 * Scales an image to a new size with nearest neighbor sampling.
+	 * @param image the image
+	 * @param width the new width
+	 * @param height the new height
+	 * @return the scaled image
+	 */
+	public static BufferedImage scaleImage(BufferedImage image, int width, int height) {
+		BufferedImage scaledImage = new BufferedImage(Math.max(1, width), Math.max(1, height), image.getType());
+		Graphics2D g = scaledImage.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		g.drawImage(image, 0, 0, width, height, null);
+		g.dispose();
+		return scaledImage;
+	}
+	
+	/**
+	 * Calculates a fingerprint of the content of an HSB image matrix, equal images have equal fingerprints.
+	 * @param hsbImage the HSB image matrix
+	 * @return a 64 bit hash of the dimensions and every hue, saturation and brightness value
+	 */
+	public static long fingerprint(float[][][] hsbImage) {
+		
+		// image dimensions
+		int numPixelsCol = hsbImage.length;
+		int numPixelsRow = (numPixelsCol == 0) ? 0 : hsbImage[0].length;
+		
+		// FNV-1a style hash over the bits of every value
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ numPixelsCol) * 0x100000001b3L;
+		hash = (hash ^ numPixelsRow) * 0x100000001b3L;
+		for (int c = 0; c < numPixelsCol; c ++) {
+			for (int r = 0; r < numPixelsRow; r ++) {
+				float[] hsb = hsbImage[c][r];
+				hash = (hash ^ Float.floatToIntBits(hsb[0])) * 0x100000001b3L;
+				hash = (hash ^ Float.floatToIntBits(hsb[1])) * 0x100000001b3L;
+				hash = (hash ^ Float.floatToIntBits(hsb[2])) * 0x100000001b3L;
+			}
+		}
+		return hash;
+		
+	}
+	
 	/**
 	 * Extracts only the brightness from an HSB image matrix.
 	 * @param hsbImage the HSB image matrix
@@ -116,13 +370,27 @@ public class Utilities {
 	 * @return the HSB brightness for each pixel
 	 */
 	public static int[][] hsbBrightnessExtractor(float[][][] hsbImage, int hsbBrightnessMaxIntValue) {
+		int numPixelsCol = hsbImage.length;
+		int numPixelsRow = (numPixelsCol == 0) ? 0 : hsbImage[0].length;
+		return hsbBrightnessExtractor(hsbImage, hsbBrightnessMaxIntValue, new int[numPixelsCol][numPixelsRow]);
+	}
+	
+	/**
+	 * Extracts only the brightness from an HSB image matrix into an existing matrix.
+	 * @param hsbImage the HSB image matrix
+	 * @param hsbBrightnessMaxIntValue the maximum HSB as integer for histogram equalization 
+	 * @param hsbBrightnessImage the matrix to set, of the size of the image
+	 * @return the HSB brightness for each pixel
+	 */
+	public static int[][] hsbBrightnessExtractor(float[][][] hsbImage, int hsbBrightnessMaxIntValue, int[][] hsbBrightnessImage) {
 		
-		// matrix for holding brightness values
-		int[][] hsbBrightnessImage = new int[IMAGE_SIZE][IMAGE_SIZE];
+		// image dimensions
+		int numPixelsCol = hsbImage.length;
+		int numPixelsRow = (numPixelsCol == 0) ? 0 : hsbImage[0].length;
 		
 		// extract and set brightnesses for each pixel
-		for (int c = 0; c < IMAGE_SIZE; c ++) {
-			for (int r = 0; r < IMAGE_SIZE; r ++) {
+		for (int c = 0; c < numPixelsCol; c ++) {
+			for (int r = 0; r < numPixelsRow; r ++) {
 				hsbBrightnessImage[c][r] = (int) (hsbImage[c][r][2] * hsbBrightnessMaxIntValue);
 			}
 		}
@@ -154,6 +422,51 @@ public class Utilities {
 		}
 	}
 	
+	/**
+	 * Saves an image to a file without user interaction. The format is taken from the file extension.
+	 * @param image the image to save
+	 * @param imageFile the file to save to
+	 * @throws IOException if the image could not be written
+	 */
+	public static void saveImage(BufferedImage image, File imageFile) throws IOException {
+		
+		// format from the file extension
+		String fileName = imageFile.getName();
+		String format = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
+		
+		// write to file
+		if (!ImageIO.write(writableImage(image, format), format, imageFile)) throw new IOException("No writer for image format: " + format);
+		
+	}
+	
+	/**
+	 * Writes an image to a stream in a given format, e.g. into the response of a request.
+	 * @param image the image to write
+	 * @param format the image format, e.g. png or jpg
+	 * @param out the stream to write to, not closed
+	 * @throws IOException if the image could not be written or there is no writer for the format
+	 */
+	public static void writeImage(BufferedImage image, String format, OutputStream out) throws IOException {
+		if (!ImageIO.write(writableImage(image, format.toLowerCase()), format, out)) throw new IOException("No writer for image format: " + format);
+	}
+	
+	/**
+	 * Gets an image the writer of a format can write.
+	 * @param image the image to write
+	 * @param format the lower case image format
+	 * @return the image, or for jpg, which has no alpha channel, the image drawn onto an rgb image
+	 */
+	private static BufferedImage writableImage(BufferedImage image, String format) {
+		if (image.getColorModel().hasAlpha() && (format.equals("jpg") || format.equals("jpeg"))) {
+			BufferedImage rgbImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+			Graphics g = rgbImage.createGraphics();
+			g.drawImage(image, 0, 0, null);
+			g.dispose();
+			return rgbImage;
+		}
+		return image;
+	}
+	
 	public static final String[] images = new String[] {
 		"Buzz.jpg",
 		"Castle.jpg",
@@ -164,6 +477,10 @@ public class Utilities {
 		"SanFrancisco.jpg"
 	};
 	
+	// the size of the images displayed in the application, transformations work on any size
 	public static final int IMAGE_SIZE = 512;
 	
+	// number of row stripes per pool thread when rendering in parallel
+	private static final int TASKS_PER_THREAD = 4;
+	
 }